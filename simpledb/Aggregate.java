@@ -122,8 +122,16 @@ public class Aggregate extends Operator {
         child.open();
         super.open();
         boolean fieldIsOfStringType = child.getTupleDesc().getFieldType(afield).equals(Type.STRING_TYPE);
+        SeqScan runSource = this.intRunSource();
+        if (runSource != null) {
+            // Aggregate whole pages of values without creating tuples
+            int[] run;
+            while ((run = runSource.nextIntRun(afield)) != null) {
+                integerAggregator.mergeIntRun(run);
+            }
+        }
         // Merge child tuples through aggregator
-        while (child.hasNext()) {
+        while (runSource == null && child.hasNext()) {
             Tuple childTuple = child.next();
             if (fieldIsOfStringType) {
                 stringAggregator.mergeTupleIntoGroup(childTuple);
@@ -139,6 +147,34 @@ public class Aggregate extends Operator {
         tupleIterator.open();
     }
 
+    /**
+     * Returns the scan to read runs of aggregate field values from, if the
+     * aggregate has no grouping and its child is an open heap file scan,
+     * possibly under filters whose predicates the scan applies itself.
+     *
+     * @return the scan, or null if tuples must be read from the child
+     */
+    private SeqScan intRunSource() {
+        if (integerAggregator == null || gfield != -1) {
+            return null;
+        }
+        OpIterator below = child;
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        while (below instanceof Filter) {
+            predicates.add(((Filter) below).getPredicate());
+            below = ((Filter) below).getChildren()[0];
+        }
+        if (!(below instanceof SeqScan) || !((SeqScan) below).readsIntRuns()) {
+            return null;
+        }
+        for (Predicate p : predicates) {
+            if (!((SeqScan) below).appliesPredicate(p)) {
+                return null;
+            }
+        }
+        return (SeqScan) below;
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -179,6 +215,8 @@ public class Aggregate extends Operator {
 	   // some code goes here
         super.close();
         tupleIterator.close();
+        // Also withdraws predicates filters below pushed down to the scan
+        child.close();
     }
 
     @Override
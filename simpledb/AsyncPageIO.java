@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AsyncPageIO performs HeapFile page reads and writes on a dedicated pool of
+ * I/O threads and returns CompletableFutures for their results, so a caller
+ * can keep several reads outstanding at once and overlap them with its own
+ * work.
+ * <p>
+ * The number of requests in flight is bounded by the queue depth. There is
+ * one I/O thread per slot, so every admitted request is issued to the file
+ * system right away. readPage, readPages and writePages wait for a free slot;
+ * tryReadPages returns null instead, for callers such as read-ahead that
+ * would rather skip a read than wait for one.
+ * <p>
+ * The log is not written through this class: log records must reach the
+ * disk in order and a commit has to wait for its force anyway.
+ *
+ * @see ReadAhead
+ * @see BufferPool#prefetchPages
+ */
+public class AsyncPageIO {
+
+    /** Default number of requests in flight at once. */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    private static AsyncPageIO instance;
+
+    private final int queueDepth;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final LongAdder submitted;
+    private final LongAdder completed;
+    private final LongAdder rejected;
+
+    /** @return the engine shared by all files */
+    public static synchronized AsyncPageIO getInstance() {
+        if (instance == null) {
+            instance = new AsyncPageIO(DEFAULT_QUEUE_DEPTH);
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the shared engine with one of the given queue depth. Requests
+     * already in flight finish on the old engine.
+     */
+    public static synchronized void setQueueDepth(int queueDepth) {
+        AsyncPageIO old = instance;
+        instance = new AsyncPageIO(queueDepth);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * @param queueDepth the largest number of requests in flight at once
+     */
+    public AsyncPageIO(int queueDepth) {
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("queue depth must be at least 1");
+        }
+        this.queueDepth = queueDepth;
+        // Daemon threads so they never keep the JVM alive
+        this.executor = Executors.newFixedThreadPool(queueDepth, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-page-io");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.slots = new Semaphore(queueDepth);
+        this.submitted = new LongAdder();
+        this.completed = new LongAdder();
+        this.rejected = new LongAdder();
+    }
+
+    /** Reads a page, waiting for a free slot if the queue is full. */
+    public CompletableFuture<Page> readPage(final HeapFile file, final PageId pid) {
+        slots.acquireUninterruptibly();
+        return this.submit(new Callable<Page>() {
+            public Page call() throws Exception {
+                return file.readPageFromDisk(pid);
+            }
+        });
+    }
+
+    /**
+     * Reads count consecutive pages with a single request, waiting for a
+     * free slot if the queue is full.
+     *
+     * @see HeapFile#readPages
+     */
+    public CompletableFuture<List<Page>> readPages(HeapFile file, int firstPage, int count) {
+        slots.acquireUninterruptibly();
+        return this.submit(this.pagesReader(file, firstPage, count));
+    }
+
+    /**
+     * Like readPages, but does not wait for a slot.
+     *
+     * @return the future of the pages, or null if the queue is full
+     */
+    public CompletableFuture<List<Page>> tryReadPages(HeapFile file, int firstPage, int count) {
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            return null;
+        }
+        return this.submit(this.pagesReader(file, firstPage, count));
+    }
+
+    /**
+     * Writes pages of a file, waiting for a free slot if the queue is full.
+     * The pages are written as they are when the request runs.
+     *
+     * @see HeapFile#writePages
+     */
+    public CompletableFuture<Void> writePages(final HeapFile file, final List<? extends Page> pages) {
+        slots.acquireUninterruptibly();
+        return this.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                file.writePages(pages);
+                return null;
+            }
+        });
+    }
+
+    private Callable<List<Page>> pagesReader(final HeapFile file, final int firstPage, final int count) {
+        return new Callable<List<Page>>() {
+            public List<Page> call() throws Exception {
+                return file.readPages(firstPage, count);
+            }
+        };
+    }
+
+    /** Runs a request on an I/O thread. The caller must have taken a slot. */
+    private <T> CompletableFuture<T> submit(final Callable<T> request) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        submitted.increment();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(request.call());
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        completed.increment();
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            completed.increment();
+            slots.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /** Stops accepting requests; requests in flight still complete. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /** @return the largest number of requests in flight at once */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /** @return the number of requests currently in flight */
+    public int getOutstanding() {
+        return queueDepth - slots.availablePermits();
+    }
+
+    /** @return the number of requests submitted so far */
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    /** @return the number of requests that have completed, successfully or not */
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /** @return the number of tryReadPages calls turned away because the queue was full */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures random page read throughput of AsyncPageIO against queue depth.
+ * For each depth it reads the same random sequence of single pages of a
+ * heap file, keeping up to that many reads in flight, and prints the pages
+ * read per second. Run it on a file larger than the OS page cache, or after
+ * dropping the cache, to measure the disk rather than memory.
+ * <p>
+ * Usage: java simpledb.AsyncPageIOBenchmark file.dat numColumns [reads] [maxDepth]
+ */
+public class AsyncPageIOBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: AsyncPageIOBenchmark file.dat numColumns [reads] [maxDepth]");
+            return;
+        }
+        HeapFile file = Utility.openHeapFile(Integer.parseInt(args[1]), new File(args[0]));
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        if (file.numPages() == 0) {
+            System.err.println(args[0] + " has no pages");
+            return;
+        }
+        Random random = new Random(0);
+        int[] pageNumbers = new int[reads];
+        for (int i = 0; i < reads; i++) {
+            pageNumbers[i] = random.nextInt(file.numPages());
+        }
+        System.out.println("depth\tpages/s\tMB/s");
+        for (int depth = 1; depth <= maxDepth; depth *= 2) {
+            AsyncPageIO io = new AsyncPageIO(depth);
+            long start = System.nanoTime();
+            // readPage waits for a free slot, so at most depth reads are in flight
+            ArrayDeque<CompletableFuture<Page>> inFlight = new ArrayDeque<CompletableFuture<Page>>();
+            for (int pageNumber : pageNumbers) {
+                if (inFlight.size() > depth) {
+                    inFlight.poll().join();
+                }
+                inFlight.add(io.readPage(file, new HeapPageId(file.getId(), pageNumber)));
+            }
+            while (!inFlight.isEmpty()) {
+                inFlight.poll().join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            io.shutdown();
+            System.out.printf("%d\t%.0f\t%.1f%n", depth, reads / seconds,
+                    reads * (double) BufferPool.getPageSize() / (1 << 20) / seconds);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.*;
 
@@ -13,35 +15,297 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The frames are partitioned into shards by page id. Each shard has its own
+ * page table, replacement policy and latch (the shard object's monitor), so
+ * requests for pages in different shards do not contend. Operations that
+ * span the whole pool (flushing, completing a transaction) first take the
+ * BufferPool monitor and then the shard latches one at a time, which is the
+ * same order LogFile uses; getPage only ever takes a single shard latch,
+ * and reads a missing page with the latch released.
+ * <p>
+ * The pool can be resized while queries run. Growing takes effect at once;
+ * after shrinking, a shard that holds more pages than its new capacity gives
+ * up a few clean pages, chosen by its replacement policy, on each miss.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
+
+    private static volatile boolean offHeapFrames = false;
     
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    // Stores pages
-    private Map<PageId, Page> pages;
-    private int numPages;
-    private LockManager lockManager;
+    /** Number of extra pages a shard over its capacity gives up per miss. */
+    public static final int SHRINK_EVICTIONS_PER_MISS = 2;
+
+    /** Smallest number of frames a shard gets when the shard count is chosen automatically. */
+    public static final int MIN_PAGES_PER_SHARD = 32;
+
+    /** A partition of the buffer pool, guarded by its own monitor. */
+    private static class Shard {
+        // Stores pages
+        final Map<PageId, Page> pages;
+        // Decides which page to give up when the shard is full
+        final ReplacementPolicy replacementPolicy;
+        // Changed by resize; guarded by the shard latch
+        int capacity;
+        // Pages loaded through a BufferRing and not used outside it since
+        final Set<PageId> ringPages;
+        // Pages in use by an operator; they are never evicted
+        final Map<PageId, Integer> pinCounts;
+        // Pages being read from disk by a getPage miss, which holds a frame
+        // for each; other threads that miss on one wait for its read
+        final Map<PageId, CompletableFuture<Page>> loading;
+
+        Shard(int capacity, ReplacementPolicy replacementPolicy) {
+            this.pages = new HashMap<PageId, Page>();
+            this.ringPages = new HashSet<PageId>();
+            this.pinCounts = new HashMap<PageId, Integer>();
+            this.loading = new HashMap<PageId, CompletableFuture<Page>>();
+            this.replacementPolicy = replacementPolicy;
+            this.capacity = capacity;
+        }
+
+        /** @return the frames in use, by cached pages and pages being read */
+        int usedFrames() {
+            return pages.size() + loading.size();
+        }
+    }
+
+    private final Shard[] shards;
+    private volatile int numPages;
+    private final LockManager lockManager;
+    private final PageCleaner pageCleaner;
+    // Pins each transaction holds, so they can be dropped when it completes
+    private final Map<TransactionId, List<PageId>> transactionPins;
+    private final BufferPoolMetrics metrics;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using LRU-2
+     * page replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LruKReplacementPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages. The number of
+     * shards is derived from the number of available processors, keeping at
+     * least MIN_PAGES_PER_SHARD frames in every shard.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy the policy used to choose pages to evict.
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy) {
+        this(numPages, defaultNumShards(numPages), replacementPolicy);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split across
+     * numShards shards.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards number of independently latched partitions; must be
+     *        between 1 and numPages.
+     * @param replacementPolicy the policy used to choose pages to evict. Each
+     *        shard gets its own instance, see {@link ReplacementPolicy#newInstance}.
+     */
+    public BufferPool(int numPages, int numShards, ReplacementPolicy replacementPolicy) {
         // some code goes here
-        pages = new HashMap<PageId, Page>();
+        if (numShards < 1 || numShards > numPages) {
+            throw new IllegalArgumentException("numShards must be between 1 and numPages");
+        }
         this.numPages = numPages;
         lockManager = new LockManager();
+        pageCleaner = new PageCleaner(this);
+        transactionPins = new HashMap<TransactionId, List<PageId>>();
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            int capacity = shardCapacity(numPages, numShards, i);
+            ReplacementPolicy policy = (i == 0) ? replacementPolicy : replacementPolicy.newInstance();
+            shards[i] = new Shard(capacity, policy);
+        }
+        metrics = new BufferPoolMetrics(this);
+        metrics.register();
+    }
+
+    /** Returns the number of frames of shard i; the remainder goes to the first shards. */
+    private static int shardCapacity(int numPages, int numShards, int i) {
+        return numPages / numShards + (i < numPages % numShards ? 1 : 0);
+    }
+
+    /**
+     * Changes the number of frames of this buffer pool while it is in use.
+     * When the pool shrinks no page is evicted right away; shards that hold
+     * too many pages give them up gradually as new pages are read.
+     *
+     * @param newNumPages the new number of frames; at least the number of shards
+     */
+    public synchronized void resize(int newNumPages) {
+        if (newNumPages < shards.length) {
+            throw new IllegalArgumentException("a buffer pool with " + shards.length
+                    + " shards needs at least " + shards.length + " pages");
+        }
+        for (int i = 0; i < shards.length; i++) {
+            synchronized (shards[i]) {
+                shards[i].capacity = shardCapacity(newNumPages, shards.length, i);
+            }
+        }
+        numPages = newNumPages;
+    }
+
+    private static int defaultNumShards(int numPages) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(processors, numPages / MIN_PAGES_PER_SHARD));
+    }
+
+    /** Returns the shard responsible for the given page. */
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        // Mix the high bits in; page numbers of one table only differ in the low bits
+        h ^= (h >>> 16);
+        return shards[(h & 0x7fffffff) % shards.length];
+    }
+
+    /** @return the lock manager, e.g. to configure lock-wait timeouts or read wait statistics */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /** @return the number of frames in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the hit, miss and eviction counters of this buffer pool */
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return the number of pages currently cached */
+    public int getNumCachedPages() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.pages.size();
+            }
+        }
+        return count;
+    }
+
+    /** @return the number of cached pages with changes not written to disk */
+    public int getNumDirtyPages() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Page page : shard.pages.values()) {
+                    if (page.isDirty() != null) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** @return the number of pages pinned by an operator */
+    public int getNumPinnedPages() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.pinCounts.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lists the cached pages, the ones the replacement policies would keep
+     * longest first. The lists of the shards are interleaved.
+     */
+    public List<PageId> getHotPages() {
+        List<List<PageId>> shardPages = new ArrayList<List<PageId>>();
+        int longest = 0;
+        for (Shard shard : shards) {
+            List<PageId> pageIds;
+            synchronized (shard) {
+                pageIds = shard.replacementPolicy.getResidentPages();
+            }
+            shardPages.add(pageIds);
+            longest = Math.max(longest, pageIds.size());
+        }
+        List<PageId> hotPages = new ArrayList<PageId>();
+        for (int i = 0; i < longest; i++) {
+            for (List<PageId> pageIds : shardPages) {
+                if (i < pageIds.size()) {
+                    hotPages.add(pageIds.get(i));
+                }
+            }
+        }
+        return hotPages;
+    }
+
+    /**
+     * Saves the list of cached pages, so a later warmUp can reload them.
+     * Called when the database shuts down.
+     */
+    public void saveHotPages(File hotPageFile) throws IOException {
+        BufferPoolWarmer.save(this.getHotPages(), hotPageFile);
+    }
+
+    /**
+     * Starts reloading, in the background, the pages listed by an earlier
+     * saveHotPages. Does nothing if the file does not exist.
+     *
+     * @return the loader, to follow its progress
+     */
+    public BufferPoolWarmer warmUp(File hotPageFile) {
+        BufferPoolWarmer warmer = new BufferPoolWarmer(this, hotPageFile);
+        Thread thread = new Thread(warmer, "simpledb-buffer-pool-warmer");
+        thread.setDaemon(true);
+        thread.start();
+        return warmer;
+    }
+
+    /**
+     * Caches a page read by the warmer if its shard has a free frame and the
+     * page is not cached yet. The page is dropped if the file was written
+     * since writeCount was taken, as the copy may be stale.
+     *
+     * @return true if the page was cached
+     */
+    boolean cacheIfAbsent(Page page, HeapFile file, long writeCount) {
+        PageId pid = page.getId();
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            if (shard.usedFrames() >= shard.capacity || shard.pages.containsKey(pid)
+                    || shard.loading.containsKey(pid) || file.getWriteCount() != writeCount) {
+                return false;
+            }
+            shard.pages.put(pid, page);
+            shard.replacementPolicy.pageAdded(pid);
+            return true;
+        }
+    }
+
+    /** @return the background writer of committed pages */
+    public PageCleaner getPageCleaner() {
+        return pageCleaner;
+    }
+
+    /** @return the number of shards this buffer pool is partitioned into */
+    public int getNumShards() {
+        return shards.length;
     }
     
     public static int getPageSize() {
@@ -58,6 +322,20 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Chooses where pages created from now on keep their bytes: in direct
+     * ByteBuffer frames of the PageArena, outside the Java heap, or in byte
+     * arrays on the heap (the default). Pages already cached are not moved.
+     */
+    public static void setOffHeapFrames(boolean offHeap) {
+        offHeapFrames = offHeap;
+    }
+
+    /** @return true if new pages keep their bytes in off-heap frames */
+    public static boolean isOffHeapFrames() {
+        return offHeapFrames;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -76,20 +354,207 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here    
+        return this.getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like getPage(tid, pid, perm), but brings
+     * the page in through the given ring. When a frame is needed the ring
+     * first gives up one of its own pages, and the ring never occupies more
+     * than its size in frames, so a large scan does not push other pages out
+     * of the buffer pool.
+     *
+     * @param ring the ring of the calling scan, or null to use the pool as usual
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return this.fetchPage(tid, pid, perm, ring, false);
+    }
+
+    /**
+     * Retrieves the specified page like getPage(tid, pid, perm) and pins it.
+     * A pinned page is never evicted; the caller releases the pin with
+     * unpinPage once it is done with the page. Pins a transaction still
+     * holds are released when it completes.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return this.fetchPage(tid, pid, perm, null, true);
+    }
+
+    /**
+     * Retrieves the specified page like getPage(tid, pid, perm, ring) and
+     * pins it, see pinPage(tid, pid, perm).
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return this.fetchPage(tid, pid, perm, ring, true);
+    }
+
+    /**
+     * Releases a pin tid holds on a page. Does nothing if tid holds no pin
+     * on the page, e.g. because it already completed.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        synchronized (transactionPins) {
+            List<PageId> pins = transactionPins.get(tid);
+            if (pins == null || !pins.remove(pid)) {
+                return;
+            }
+            if (pins.isEmpty()) {
+                transactionPins.remove(tid);
+            }
+        }
+        this.decrementPinCount(pid);
+    }
+
+    /** @return true if any transaction holds a pin on the page */
+    public boolean isPinned(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            return shard.pinCounts.containsKey(pid);
+        }
+    }
+
+    private void decrementPinCount(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            Integer count = shard.pinCounts.get(pid);
+            if (count == null) {
+                return;
+            }
+            if (count == 1) {
+                shard.pinCounts.remove(pid);
+            } else {
+                shard.pinCounts.put(pid, count - 1);
+            }
+        }
+    }
+
+    /** Releases every pin tid still holds. */
+    private void unpinAll(TransactionId tid) {
+        List<PageId> pins;
+        synchronized (transactionPins) {
+            pins = transactionPins.remove(tid);
+        }
+        if (pins != null) {
+            for (PageId pid : pins) {
+                this.decrementPinCount(pid);
+            }
+        }
+    }
+
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring, boolean pin)
+        throws TransactionAbortedException, DbException {
+        // Parks until the lock is granted; aborts on deadlock or timeout
+        lockManager.acquireLock(tid, pid, perm);
+        Shard shard = shardOf(pid);
         while (true) {
-            if (lockManager.acquireLock(tid, pid, perm)) {
-                break;
+            CompletableFuture<Page> load;
+            boolean reading = false;
+            synchronized (shard) {
+                Page page = shard.pages.get(pid);
+                if (page != null) {
+                    if (ring == null) {
+                        // Used outside a ring, so the pool keeps it like any other page
+                        shard.ringPages.remove(pid);
+                    }
+                    shard.replacementPolicy.pageAccessed(pid);
+                    metrics.recordHit(pid);
+                    if (pin) {
+                        this.pin(shard, tid, pid);
+                    }
+                    return page;
+                }
+                load = shard.loading.get(pid);
+                if (load == null) {
+                    metrics.recordMiss(pid);
+                    if (shard.usedFrames() >= shard.capacity && !this.recycleRingPage(shard, ring)) {
+                        this.evictPage(shard);
+                    }
+                    if (shard.usedFrames() >= shard.capacity) {
+                        // The pool was shrunk; work off the excess a little at a time
+                        this.shrinkShard(shard);
+                    }
+                    // Hold the frame while the page is read without the latch
+                    load = new CompletableFuture<Page>();
+                    shard.loading.put(pid, load);
+                    reading = true;
+                }
+            }
+            if (reading) {
+                Page newPage = this.readIntoFrame(shard, tid, pid, ring, pin, load);
+                if (newPage != null) {
+                    return newPage;
+                }
+                // Discarded while it was read, so the copy may be stale; read it again
+                continue;
+            }
+            // Another thread is reading the page; look it up again once it is done
+            try {
+                load.join();
+            } catch (CompletionException e) {
+                // Its read failed; the next round reads the page here
+            }
+        }
+    }
+
+    /**
+     * Reads a page into the frame fetchPage holds for it with load, without
+     * the shard latch, so requests for other pages of the shard go on
+     * meanwhile. Completes load once the page is cached, or could not be.
+     *
+     * @return the page, or null if it was discarded while it was read
+     */
+    private Page readIntoFrame(Shard shard, TransactionId tid, PageId pid, BufferRing ring, boolean pin,
+            CompletableFuture<Page> load) {
+        Page newPage;
+        try {
+            newPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            synchronized (shard) {
+                shard.loading.remove(pid, load);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        PageId released = null;
+        synchronized (shard) {
+            if (!shard.loading.remove(pid, load)) {
+                newPage = null;
+            } else {
+                shard.pages.put(pid, newPage);
+                shard.replacementPolicy.pageAdded(pid);
+                if (pin) {
+                    this.pin(shard, tid, pid);
+                }
+                if (ring != null) {
+                    shard.ringPages.add(pid);
+                    released = ring.pageLoaded(pid);
+                }
             }
-        } 
-        if (pages.containsKey(pid)) {
-            return pages.get(pid);
         }
-        if (this.numPages == pages.size()) {
-            this.evictPage();
+        load.complete(newPage);
+        // The oldest page of the ring may live in another shard, so it is
+        // given up only after this shard's latch is released
+        if (released != null) {
+            this.releaseRingPage(released);
+        }
+        return newPage;
+    }
+
+    /** Pins a cached page on behalf of tid. The caller must hold the shard latch. */
+    private void pin(Shard shard, TransactionId tid, PageId pid) {
+        Integer count = shard.pinCounts.get(pid);
+        shard.pinCounts.put(pid, count == null ? 1 : count + 1);
+        synchronized (transactionPins) {
+            List<PageId> pins = transactionPins.get(tid);
+            if (pins == null) {
+                pins = new ArrayList<PageId>();
+                transactionPins.put(tid, pins);
+            }
+            pins.add(pid);
         }
-        Page newPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        pages.put(pid, newPage);
-        return newPage; 
     }
 
     /**
@@ -136,32 +601,61 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        if (commit) {
-            for (PageId pageId : pages.keySet()) {
-                Page page = pages.get(pageId);
-                TransactionId dirtier = page.isDirty();
-                if (tid.equals(dirtier)) {
-                    // append an update record to the log, with
-                    // a before-image and after-image.
-                    Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-                    Database.getLogFile().force();
-                    // use current page contents as the before-image
-                    // for the next transaction that modifies this page.
-                    page.setBeforeImage(); 
+        // Lock order: buffer pool, then shard, then log. LogFile methods
+        // that take the log before a shard hold the buffer pool first
+        List<PageId> committedPages = new ArrayList<PageId>();
+        synchronized (this) {
+            for (Shard shard : shards) {
+                synchronized (shard) {
+                    if (commit) {
+                        for (PageId pageId : shard.pages.keySet()) {
+                            Page page = shard.pages.get(pageId);
+                            TransactionId dirtier = page.isDirty();
+                            if (tid.equals(dirtier)) {
+                                // append an update record to the log, with
+                                // a before-image and after-image.
+                                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+                                // use current page contents as the before-image
+                                // for the next transaction that modifies this page.
+                                page.setBeforeImage(); 
+                                committedPages.add(pageId);
+                            }
+                        }
+                    } else {
+                        for (PageId pageId : shard.pages.keySet()) {
+                            Page page = shard.pages.get(pageId);
+                            // Check if the page is dirty
+                            if (tid.equals(page.isDirty())) {
+                                // Get the page representation before any modifications were made to it
+                                Page oldPage = page.getBeforeImage();
+                                // Changes an earlier transaction committed may not be on disk yet
+                                TransactionId committedWriter = pageCleaner.getCommittedWriter(pageId);
+                                if (committedWriter != null) {
+                                    oldPage.markDirty(true, committedWriter);
+                                }
+                                // Overwrite the value of the pageId key to the oldPage
+                                shard.pages.put(pageId, oldPage);
+                                DbFile file = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+                                if (file instanceof HeapFile && oldPage instanceof TuplePage) {
+                                    // Space the transaction filled or freed is back as it was
+                                    ((HeapFile) file).updateFreeSpace(pageId.getPageNumber(), ((TuplePage) oldPage).hasFreeSpace());
+                                }
+                            }
+                        }
+                    }
                 }
             }
-        } else {
-            for (PageId pageId : pages.keySet()) {
-                Page page = pages.get(pageId);
-                // Check if the page is dirty
-                if (tid.equals(page.isDirty())) {
-                    // Get the page representation before any modifications were made to it
-                    Page oldPage = page.getBeforeImage();
-                    // Overwrite the value of the pageId key to the oldPage
-                    pages.put(pageId, oldPage);
-                }
+            if (!committedPages.isEmpty()) {
+                // One force covers all update records; the pages themselves
+                // are written later by the page cleaner
+                Database.getLogFile().force();
+                pageCleaner.pagesCommitted(committedPages, tid);
             }
         }
+        if (!committedPages.isEmpty()) {
+            pageCleaner.writeAboveForegroundRatio();
+        }
+        this.unpinAll(tid);
         lockManager.releaseLocksOfTransaction(tid);
     }
 
@@ -184,13 +678,13 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> modifiedPages = heapFile.insertTuple(tid, t);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> modifiedPages = file.insertTuple(tid, t);
         for (int i = 0; i < modifiedPages.size(); i++) {
             Page modifiedPage = modifiedPages.get(i);
             modifiedPage.markDirty(true, tid);
             // Store the modified page into the buffer pool
-            pages.put(modifiedPage.getId(), modifiedPage);
+            this.cachePage(modifiedPage);
         }
     }
 
@@ -212,13 +706,13 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> modifiedPages = heapFile.deleteTuple(tid, t);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> modifiedPages = file.deleteTuple(tid, t);
         for (int i = 0; i < modifiedPages.size(); i++) {
             Page modifiedPage = modifiedPages.get(i);
             modifiedPage.markDirty(true, tid);
             // Store the modified page into the buffer pool
-            pages.put(modifiedPage.getId(), modifiedPage);
+            this.cachePage(modifiedPage);
         }
     }
 
@@ -230,8 +724,148 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId currentPageId : pages.keySet()) {
-            this.flushPage(currentPageId);
+        List<Page> pages = new ArrayList<Page>();
+        List<Page> images = new ArrayList<Page>();
+        List<TransactionId> committedWriters = new ArrayList<TransactionId>();
+        Map<PageId, int[]> zonesAtCapture = new HashMap<PageId, int[]>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (PageId currentPageId : shard.pages.keySet()) {
+                    this.collectPageToFlush(shard.pages.get(currentPageId), pages, images, committedWriters,
+                            zonesAtCapture);
+                }
+            }
+        }
+        // Pages of all shards are written together so neighbours coalesce
+        this.writePages(pages, images, committedWriters, zonesAtCapture);
+    }
+
+    /**
+     * Adds a dirty page to the pages flushAllPages or flushPages write.
+     * Pages that only hold committed changes are added with their writer,
+     * so they can be marked clean once written, and their committed image;
+     * for other pages an update record is appended to the log first, and
+     * the page itself is added with null. The caller must hold the shard
+     * latch and force the log before writing.
+     */
+    private void collectPageToFlush(Page page, List<Page> pages, List<Page> images,
+            List<TransactionId> committedWriters, Map<PageId, int[]> zonesAtCapture) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier == null) {
+            // Clean pages match the disk
+            return;
+        }
+        if (pageCleaner.isCommitted(page.getId(), dirtier)) {
+            // The update records were forced when the transaction committed
+            pages.add(page);
+            images.add(this.committedImage(page, zonesAtCapture));
+            committedWriters.add(dirtier);
+            return;
+        }
+        // append an update record to the log, with
+        // a before-image and after-image.
+        Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+        pages.add(page);
+        images.add(page);
+        committedWriters.add(null);
+    }
+
+    /**
+     * Returns the image to write for a page whose changes are all
+     * committed. A later transaction that has locked the page may be
+     * changing it before it marks it dirty, so the live page can hold
+     * uncommitted or half-made changes; the before image is the state the
+     * last commit left and only moves on when the next writer commits. The
+     * caller must hold the shard latch, which commits take while they
+     * replace before images.
+     * <p>
+     * For pages of a file with a zone map, records the page's zone in
+     * zonesAtCapture, so the write can tell whether tuples were inserted
+     * after the image was taken. If a transaction holds the page's write
+     * lock, the image is marked dirty by it: the live page may already
+     * hold tuples the image lacks, so the zone must not shrink to the
+     * image's.
+     */
+    private Page committedImage(Page page, Map<PageId, int[]> zonesAtCapture) {
+        Page image = page.getBeforeImage();
+        DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        ZoneMap zoneMap = file instanceof HeapFile ? ((HeapFile) file).getZoneMap() : null;
+        if (zoneMap != null) {
+            // Looked up before the lock, so inserts after the lock check change the zone
+            zonesAtCapture.put(page.getId(), zoneMap.get(page.getId().getPageNumber()));
+            TransactionId writer = lockManager.getExclusiveHolder(page.getId());
+            if (writer != null) {
+                image.markDirty(true, writer);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes the images of pages collected under their shard latches, file
+     * by file, so runs of consecutive pages go out in single writes.
+     * Afterwards marks clean the cached pages whose entry in
+     * committedWriters is not null, unless they were dropped or changed
+     * again in the meantime. Forces the log first if any page still has
+     * uncommitted changes. Must be called without holding a shard latch.
+     *
+     * @param pages the cached pages
+     * @param images what to write for each of pages
+     * @param zonesAtCapture the zones recorded when committed images were taken
+     * @return the number of pages marked clean
+     */
+    private int writePages(List<Page> pages, List<Page> images, List<TransactionId> committedWriters,
+            Map<PageId, int[]> zonesAtCapture) throws IOException {
+        if (committedWriters.contains(null)) {
+            Database.getLogFile().force();
+        }
+        this.writeImages(images, zonesAtCapture);
+        int markedClean = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            TransactionId dirtier = committedWriters.get(i);
+            if (dirtier == null) {
+                continue;
+            }
+            Shard shard = shardOf(page.getId());
+            synchronized (shard) {
+                if (shard.pages.get(page.getId()) == page && dirtier.equals(page.isDirty())) {
+                    page.markDirty(false, null);
+                    pageCleaner.pageWritten(page.getId(), dirtier);
+                    markedClean++;
+                } else if (!shard.pages.containsKey(page.getId())) {
+                    pageCleaner.pageWritten(page.getId(), dirtier);
+                }
+            }
+        }
+        return markedClean;
+    }
+
+    /**
+     * Writes page images, file by file, so runs of consecutive pages go
+     * out in single writes.
+     * @param zonesAtCapture the zones recorded when committed images were taken
+     * @see #committedImage
+     */
+    private void writeImages(List<Page> images, Map<PageId, int[]> zonesAtCapture) throws IOException {
+        Map<Integer, List<Page>> pagesOfTable = new HashMap<Integer, List<Page>>();
+        for (Page page : images) {
+            List<Page> tablePages = pagesOfTable.get(page.getId().getTableId());
+            if (tablePages == null) {
+                tablePages = new ArrayList<Page>();
+                pagesOfTable.put(page.getId().getTableId(), tablePages);
+            }
+            tablePages.add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> entry : pagesOfTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(entry.getKey());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).writePages(entry.getValue(), zonesAtCapture);
+            } else {
+                for (Page page : entry.getValue()) {
+                    file.writePage(page);
+                }
+            }
         }
     }
 
@@ -243,29 +877,105 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pages.remove(pid);
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            shard.pages.remove(pid);
+            shard.ringPages.remove(pid);
+            shard.replacementPolicy.pageRemoved(pid);
+            // A read in progress may predate the change that led to the discard
+            shard.loading.remove(pid);
+        }
+        pageCleaner.pageDiscarded(pid);
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Starts reading pages that are not cached in the background, so that
+     * later getPage calls for them, e.g. from a probe of several known
+     * pages, overlap their reads instead of issuing them one by one. No
+     * locks are taken; getPage still locks each page as usual.
+     *
+     * @see ReadAhead#prefetch(Collection)
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
-        Page page = pages.get(pid);
-        TransactionId dirtier = page.isDirty();
-        // Check if the page is dirty
-        if (dirtier != null) {
-            // append an update record to the log, with
-            // a before-image and after-image.
-            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-            Database.getLogFile().force();
+    public void prefetchPages(Collection<PageId> pids) {
+        Map<Integer, List<Integer>> pagesOfTable = new HashMap<Integer, List<Integer>>();
+        for (PageId pid : pids) {
+            List<Integer> pageNumbers = pagesOfTable.get(pid.getTableId());
+            if (pageNumbers == null) {
+                pageNumbers = new ArrayList<Integer>();
+                pagesOfTable.put(pid.getTableId(), pageNumbers);
+            }
+            pageNumbers.add(pid.getPageNumber());
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : pagesOfTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(entry.getKey());
+            if (file instanceof HeapFile && !((HeapFile) file).isMemoryMapped()) {
+                ((HeapFile) file).getReadAhead().prefetch(entry.getValue());
+            }
+        }
+    }
+
+    /** @return true if the page is currently cached in the buffer pool */
+    public boolean isCached(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            return shard.pages.containsKey(pid);
+        }
+    }
+
+    /** Stores a page in its shard, replacing any cached version of it. */
+    private void cachePage(Page page) {
+        Shard shard = shardOf(page.getId());
+        synchronized (shard) {
+            shard.pages.put(page.getId(), page);
+            shard.replacementPolicy.pageAdded(page.getId());
+        }
+    }
+
+    /**
+     * Writes pages holding only committed changes, coalescing neighbours,
+     * and marks them clean. Called by the page cleaner.
+     * @param writers the page cleaner's pending pages and the transactions
+     *        it expects to have dirtied them
+     * @return the number of pages written and marked clean
+     */
+    int writeCommittedPages(List<Map.Entry<PageId, TransactionId>> writers) throws IOException {
+        List<Page> pages = new ArrayList<Page>();
+        List<Page> images = new ArrayList<Page>();
+        List<TransactionId> committedWriters = new ArrayList<TransactionId>();
+        Map<PageId, int[]> zonesAtCapture = new HashMap<PageId, int[]>();
+        for (Map.Entry<PageId, TransactionId> entry : writers) {
+            Shard shard = shardOf(entry.getKey());
+            synchronized (shard) {
+                Page page = shard.pages.get(entry.getKey());
+                if (page == null || page.isDirty() == null) {
+                    // Dropped or written in the meantime
+                    pageCleaner.pageWritten(entry.getKey(), entry.getValue());
+                } else if (entry.getValue().equals(page.isDirty())) {
+                    pages.add(page);
+                    images.add(this.committedImage(page, zonesAtCapture));
+                    committedWriters.add(entry.getValue());
+                }
+                // Otherwise a running transaction changed it again; wait for it to complete
+            }
         }
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        return this.writePages(pages, images, committedWriters, zonesAtCapture);
+    }
+
+    /**
+     * Writes the committed image of a page and marks it clean. The caller
+     * must hold the shard latch.
+     * @see #committedImage
+     */
+    private void writeCommittedPage(Shard shard, PageId pid) throws IOException {
+        Page page = shard.pages.get(pid);
+        TransactionId dirtier = page.isDirty();
+        Map<PageId, int[]> zonesAtCapture = new HashMap<PageId, int[]>();
+        this.writeImages(Collections.singletonList(this.committedImage(page, zonesAtCapture)), zonesAtCapture);
+        page.markDirty(false, null);
+        pageCleaner.pageWritten(pid, dirtier);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -273,10 +983,24 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (PageId pageId : pages.keySet()) {
-            Page page = pages.get(pageId);
-            if (tid.equals(page.isDirty())) {
-                this.flushPage(pageId);
+        List<Page> pages = new ArrayList<Page>();
+        List<Page> images = new ArrayList<Page>();
+        List<TransactionId> committedWriters = new ArrayList<TransactionId>();
+        Map<PageId, int[]> zonesAtCapture = new HashMap<PageId, int[]>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (PageId pageId : shard.pages.keySet()) {
+                    Page page = shard.pages.get(pageId);
+                    if (tid.equals(page.isDirty())) {
+                        this.collectPageToFlush(page, pages, images, committedWriters, zonesAtCapture);
+                    }
+                }
+            }
+        }
+        this.writePages(pages, images, committedWriters, zonesAtCapture);
+        for (Page page : pages) {
+            Shard shard = shardOf(page.getId());
+            synchronized (shard) {
                 // Copy the new current content to the before image
                 page.setBeforeImage();
             }
@@ -284,28 +1008,124 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from the given shard of the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The caller must hold the shard latch.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(final Shard shard) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if (pages.size() < this.numPages) {
+        if (shard.usedFrames() < shard.capacity) {
             throw new DbException("The buffer pool is not full.");
         }
-        PageId pageId = null;
-        for (PageId currentPageId : pages.keySet()) {
-            if (pages.get(currentPageId).isDirty() == null) {
-                pageId = currentPageId;
-                break;
+        // Clean pages match the disk and can simply be dropped
+        PageId pageId = shard.replacementPolicy.chooseVictim(new ReplacementPolicy.Candidate() {
+            public boolean isEvictable(PageId pid) {
+                return shard.pages.get(pid).isDirty() == null && !shard.pinCounts.containsKey(pid);
+            }
+        });
+        if (pageId == null) {
+            // Otherwise write a page the page cleaner has not got to yet;
+            // pages of running transactions must stay in memory (NO STEAL)
+            pageId = shard.replacementPolicy.chooseVictim(new ReplacementPolicy.Candidate() {
+                public boolean isEvictable(PageId pid) {
+                    TransactionId dirtier = shard.pages.get(pid).isDirty();
+                    return dirtier != null && pageCleaner.isCommitted(pid, dirtier)
+                            && !shard.pinCounts.containsKey(pid);
+                }
+            });
+            if (pageId == null) {
+                throw new DbException("All pages in the buffer pool are dirty or pinned.");
             }
+            try {
+                this.writeCommittedPage(shard, pageId);
+            } catch (IOException e) {
+                throw new DbException("Could not flush page.");
+            }
+            pageCleaner.evictionWrite();
         }
-        try {
-            this.flushPage(pageId);
-        } catch (Exception e) {
-            throw new DbException("Could not flush page.");
+        this.removePage(shard, pageId);
+    }
+
+    /**
+     * Evicts up to SHRINK_EVICTIONS_PER_MISS clean, unpinned pages from a
+     * shard that holds more pages than its capacity. The caller must hold
+     * the shard latch.
+     */
+    private void shrinkShard(final Shard shard) {
+        for (int i = 0; i < SHRINK_EVICTIONS_PER_MISS && shard.usedFrames() >= shard.capacity; i++) {
+            PageId pageId = shard.replacementPolicy.chooseVictim(new ReplacementPolicy.Candidate() {
+                public boolean isEvictable(PageId pid) {
+                    return shard.pages.get(pid).isDirty() == null && !shard.pinCounts.containsKey(pid);
+                }
+            });
+            if (pageId == null) {
+                return;
+            }
+            this.removePage(shard, pageId);
+        }
+    }
+
+    /**
+     * Gives up the frame of the oldest clean, unpinned page of the ring that
+     * lives in the given shard. The caller must hold the shard latch.
+     * @return true if a frame was freed
+     */
+    private boolean recycleRingPage(Shard shard, BufferRing ring) {
+        if (ring == null) {
+            return false;
+        }
+        Iterator<PageId> it = ring.pages().iterator();
+        while (it.hasNext()) {
+            PageId pageId = it.next();
+            if (shard.ringPages.contains(pageId) && shard.pages.get(pageId).isDirty() == null
+                    && !shard.pinCounts.containsKey(pageId)) {
+                it.remove();
+                this.removePage(shard, pageId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives up a page that dropped out of its ring, unless it was used
+     * outside the ring, is dirty or is pinned, in which case the pool keeps it.
+     */
+    private void releaseRingPage(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            if (!shard.ringPages.remove(pid)) {
+                return;
+            }
+            Page page = shard.pages.get(pid);
+            if (page != null && page.isDirty() == null && !shard.pinCounts.containsKey(pid)) {
+                this.removePage(shard, pid);
+            }
+        }
+    }
+
+    /**
+     * Removes a clean page from its shard. The caller must hold the shard
+     * latch.
+     */
+    private void removePage(Shard shard, PageId pageId) {
+        metrics.recordEviction(pageId);
+        shard.pages.remove(pageId);
+        shard.ringPages.remove(pageId);
+        shard.replacementPolicy.pageRemoved(pageId);
+    }
+
+    /**
+     * Returns a ring for a sequential scan of a table with the given number
+     * of pages, or null if the table is small enough to be scanned through
+     * the pool as usual. Tables larger than a quarter of the pool get a ring.
+     */
+    public BufferRing newScanRing(int tablePages) {
+        if (tablePages <= numPages / 4) {
+            return null;
         }
-        this.discardPage(pageId);
+        return new BufferRing(Math.max(1, Math.min(BufferRing.DEFAULT_SIZE, numPages / 4)));
     }
 
 }
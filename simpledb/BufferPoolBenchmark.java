@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Measures getPage throughput of the buffer pool against the number of
+ * threads. Each thread runs its own read-only transaction that fetches
+ * random pages of a heap file, half of them from a small hot set and half
+ * from the whole file, so the threads mix hits with misses. For each
+ * thread count it prints the pages fetched per second and the hit ratio.
+ * Misses read their page without holding the shard latch, so hits and
+ * other misses keep going while a read waits for the disk; run it on a
+ * file larger than the OS page cache, or after dropping the cache, to see
+ * that overlap.
+ * <p>
+ * Usage: java simpledb.BufferPoolBenchmark file.dat numColumns [poolPages] [readsPerThread] [maxThreads]
+ */
+public class BufferPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BufferPoolBenchmark file.dat numColumns [poolPages] [readsPerThread] [maxThreads]");
+            return;
+        }
+        final HeapFile file = Utility.openHeapFile(Integer.parseInt(args[1]), new File(args[0]));
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        final int reads = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        int maxThreads = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+        final int numPages = file.numPages();
+        if (numPages == 0) {
+            System.err.println(args[0] + " has no pages");
+            return;
+        }
+        final int hotPages = Math.max(1, Math.min(numPages, poolPages / 2));
+        System.out.println("threads\tpages/s\thit ratio");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final BufferPool pool = Database.resetBufferPool(poolPages);
+            Thread[] workers = new Thread[threads];
+            final Exception[] failure = new Exception[1];
+            for (int i = 0; i < threads; i++) {
+                final Random random = new Random(i);
+                workers[i] = new Thread(new Runnable() {
+                    public void run() {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int j = 0; j < reads; j++) {
+                                int pageNumber = random.nextBoolean() ? random.nextInt(hotPages) : random.nextInt(numPages);
+                                pool.getPage(tid, new HeapPageId(file.getId(), pageNumber), Permissions.READ_ONLY);
+                            }
+                            pool.transactionComplete(tid);
+                        } catch (Exception e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            System.out.printf("%d\t%.0f\t%.3f%n", threads, threads * (double) reads / seconds,
+                    pool.getMetrics().getHitRatio());
+        }
+    }
+}
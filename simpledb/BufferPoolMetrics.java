@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolMetrics counts hits, misses and evictions of a BufferPool, in
+ * total and per table id, with lock-free counters. Together with the page
+ * I/O latencies HeapFile records and the counters of the page cleaner, read
+ * ahead and lock manager, the numbers are available through JMX (see
+ * {@link BufferPoolMetricsMBean}) and as a point-in-time {@link Snapshot}.
+ */
+public class BufferPoolMetrics implements BufferPoolMetricsMBean {
+
+    /** Name the metrics of the current BufferPool are registered under. */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    /** Counters of a single table. */
+    private static class TableCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+
+    /** Metrics of a single table at the time of the snapshot. */
+    public static class TableSnapshot {
+        public final int tableId;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        // Page I/O of the table's HeapFile; 0 for other kinds of files
+        public final long pagesRead;
+        public final long meanReadNanos;
+        public final long p99ReadNanos;
+        public final long pagesWritten;
+        public final long meanWriteNanos;
+        public final long p99WriteNanos;
+        public final long readAheadHits;
+
+        TableSnapshot(int tableId, TableCounters counters, DbFile file) {
+            this.tableId = tableId;
+            this.hits = counters.hits.sum();
+            this.misses = counters.misses.sum();
+            this.evictions = counters.evictions.sum();
+            if (file instanceof HeapFile) {
+                HeapFile heapFile = (HeapFile) file;
+                this.pagesRead = heapFile.getReadLatency().getCount();
+                this.meanReadNanos = heapFile.getReadLatency().getMeanNanos();
+                this.p99ReadNanos = heapFile.getReadLatency().getPercentileNanos(0.99);
+                this.pagesWritten = heapFile.getWriteLatency().getCount();
+                this.meanWriteNanos = heapFile.getWriteLatency().getMeanNanos();
+                this.p99WriteNanos = heapFile.getWriteLatency().getPercentileNanos(0.99);
+                this.readAheadHits = heapFile.getReadAhead().getHits();
+            } else {
+                this.pagesRead = 0;
+                this.meanReadNanos = 0;
+                this.p99ReadNanos = 0;
+                this.pagesWritten = 0;
+                this.meanWriteNanos = 0;
+                this.p99WriteNanos = 0;
+                this.readAheadHits = 0;
+            }
+        }
+
+        public String toString() {
+            return "table " + tableId + ": hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                    + " reads=" + pagesRead + " (mean " + meanReadNanos + "ns, p99 " + p99ReadNanos + "ns)"
+                    + " writes=" + pagesWritten + " (mean " + meanWriteNanos + "ns, p99 " + p99WriteNanos + "ns)"
+                    + " readAheadHits=" + readAheadHits;
+        }
+    }
+
+    /** Metrics of the whole BufferPool at the time of the snapshot. */
+    public static class Snapshot {
+        public final int capacity;
+        public final int cachedPages;
+        public final int dirtyPages;
+        public final int pinnedPages;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long cleanerBackgroundWrites;
+        public final long cleanerForegroundWrites;
+        public final long cleanerEvictionWrites;
+        public final long lockWaits;
+        public final long lockWaitNanos;
+        public final Map<Integer, TableSnapshot> tables;
+
+        Snapshot(BufferPoolMetrics metrics) {
+            this.capacity = metrics.getCapacity();
+            this.cachedPages = metrics.getCachedPages();
+            this.dirtyPages = metrics.getDirtyPages();
+            this.pinnedPages = metrics.getPinnedPages();
+            this.hits = metrics.getHits();
+            this.misses = metrics.getMisses();
+            this.evictions = metrics.getEvictions();
+            this.cleanerBackgroundWrites = metrics.getCleanerBackgroundWrites();
+            this.cleanerForegroundWrites = metrics.getCleanerForegroundWrites();
+            this.cleanerEvictionWrites = metrics.getCleanerEvictionWrites();
+            this.lockWaits = metrics.getLockWaits();
+            this.lockWaitNanos = metrics.bufferPool.getLockManager().getTotalLockWaitNanos();
+            Map<Integer, TableSnapshot> tables = new TreeMap<Integer, TableSnapshot>();
+            for (Map.Entry<Integer, TableCounters> entry : metrics.tables.entrySet()) {
+                DbFile file;
+                try {
+                    file = Database.getCatalog().getDatabaseFile(entry.getKey());
+                } catch (NoSuchElementException e) {
+                    // The table was dropped from the catalog
+                    file = null;
+                }
+                tables.put(entry.getKey(), new TableSnapshot(entry.getKey(), entry.getValue(), file));
+            }
+            this.tables = Collections.unmodifiableMap(tables);
+        }
+
+        /** @return hits / (hits + misses), or 0 before the first request */
+        public double getHitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("buffer pool: ").append(cachedPages).append("/").append(capacity).append(" pages cached, ")
+                    .append(dirtyPages).append(" dirty, ").append(pinnedPages).append(" pinned\n");
+            sb.append("hits=").append(hits).append(" misses=").append(misses)
+                    .append(String.format(" hit ratio=%.3f", this.getHitRatio()))
+                    .append(" evictions=").append(evictions).append("\n");
+            sb.append("cleaner writes: background=").append(cleanerBackgroundWrites)
+                    .append(" foreground=").append(cleanerForegroundWrites)
+                    .append(" eviction=").append(cleanerEvictionWrites).append("\n");
+            sb.append("lock waits=").append(lockWaits).append(" (")
+                    .append(TimeUnit.NANOSECONDS.toMillis(lockWaitNanos)).append("ms)");
+            for (TableSnapshot table : tables.values()) {
+                sb.append("\n").append(table);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final BufferPool bufferPool;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final ConcurrentHashMap<Integer, TableCounters> tables;
+
+    public BufferPoolMetrics(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.tables = new ConcurrentHashMap<Integer, TableCounters>();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * OBJECT_NAME, replacing the metrics of a previous BufferPool.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            // Metrics are still available through snapshot()
+            e.printStackTrace();
+        }
+    }
+
+    private TableCounters table(PageId pid) {
+        TableCounters counters = tables.get(pid.getTableId());
+        if (counters == null) {
+            counters = new TableCounters();
+            TableCounters existing = tables.putIfAbsent(pid.getTableId(), counters);
+            if (existing != null) {
+                counters = existing;
+            }
+        }
+        return counters;
+    }
+
+    void recordHit(PageId pid) {
+        hits.increment();
+        this.table(pid).hits.increment();
+    }
+
+    void recordMiss(PageId pid) {
+        misses.increment();
+        this.table(pid).misses.increment();
+    }
+
+    void recordEviction(PageId pid) {
+        evictions.increment();
+        this.table(pid).evictions.increment();
+    }
+
+    /** @return the current values of all metrics */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public int getCapacity() {
+        return bufferPool.getNumPages();
+    }
+
+    public void setCapacity(int numPages) {
+        bufferPool.resize(numPages);
+    }
+
+    public int getCachedPages() {
+        return bufferPool.getNumCachedPages();
+    }
+
+    public int getDirtyPages() {
+        return bufferPool.getNumDirtyPages();
+    }
+
+    public int getPinnedPages() {
+        return bufferPool.getNumPinnedPages();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getCleanerBackgroundWrites() {
+        return bufferPool.getPageCleaner().getBackgroundWrites();
+    }
+
+    public long getCleanerForegroundWrites() {
+        return bufferPool.getPageCleaner().getForegroundWrites();
+    }
+
+    public long getCleanerEvictionWrites() {
+        return bufferPool.getPageCleaner().getEvictionWrites();
+    }
+
+    public long getLockWaits() {
+        return bufferPool.getLockManager().getTotalLockWaits();
+    }
+
+    public long getLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(bufferPool.getLockManager().getTotalLockWaitNanos());
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        tables.clear();
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Management interface of the BufferPool, registered with the platform MBean
+ * server as {@value BufferPoolMetrics#OBJECT_NAME}.
+ *
+ * @see BufferPoolMetrics
+ */
+public interface BufferPoolMetricsMBean {
+
+    /** @return the number of frames in the buffer pool */
+    public int getCapacity();
+
+    /**
+     * Resizes the buffer pool, see {@link BufferPool#resize}.
+     * @param numPages the new number of frames
+     */
+    public void setCapacity(int numPages);
+
+    /** @return the number of pages currently cached */
+    public int getCachedPages();
+
+    /** @return the number of cached pages with changes not written to disk */
+    public int getDirtyPages();
+
+    /** @return the number of cached pages pinned by an operator */
+    public int getPinnedPages();
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHits();
+
+    /** @return the number of getPage calls that had to read the page */
+    public long getMisses();
+
+    /** @return hits / (hits + misses), or 0 before the first request */
+    public double getHitRatio();
+
+    /** @return the number of pages evicted or recycled by a BufferRing */
+    public long getEvictions();
+
+    /** @return the number of committed pages written by the page cleaner thread */
+    public long getCleanerBackgroundWrites();
+
+    /** @return the number of committed pages written by committing transactions */
+    public long getCleanerForegroundWrites();
+
+    /** @return the number of committed pages written synchronously to free a frame */
+    public long getCleanerEvictionWrites();
+
+    /** @return the total number of times a transaction waited for a page lock */
+    public long getLockWaits();
+
+    /** @return the total time transactions waited for page locks, in milliseconds */
+    public long getLockWaitMillis();
+
+    /** Resets the hit, miss and eviction counters. */
+    public void reset();
+}
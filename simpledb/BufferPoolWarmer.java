@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPoolWarmer saves the list of pages cached in a BufferPool when the
+ * database shuts down, and reloads those pages in the background after the
+ * next start, so queries do not have to bring the pool back up to its
+ * working set one readPage at a time.
+ * <p>
+ * The list is ordered with the pages the replacement policy values most
+ * first, and is cut to the size of the new pool. The loader then reads the
+ * pages table by table in page number order, coalescing consecutive pages
+ * into single reads of up to MAX_RUN_PAGES pages. Pages only go into free
+ * frames; the loader never evicts a page, and pages that transactions
+ * brought in in the meantime are left alone.
+ * <p>
+ * The file is a count followed by (table id, page number) pairs.
+ *
+ * @see BufferPool#saveHotPages
+ * @see BufferPool#warmUp
+ */
+public class BufferPoolWarmer implements Runnable {
+
+    /** Largest number of consecutive pages read at once. */
+    public static final int MAX_RUN_PAGES = 64;
+
+    private final BufferPool bufferPool;
+    private final File hotPageFile;
+    private final AtomicLong pagesLoaded;
+
+    public BufferPoolWarmer(BufferPool bufferPool, File hotPageFile) {
+        this.bufferPool = bufferPool;
+        this.hotPageFile = hotPageFile;
+        this.pagesLoaded = new AtomicLong();
+    }
+
+    /** Writes the ids of the given pages, in order, to a file. */
+    public static void save(List<PageId> pageIds, File file) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(pageIds.size());
+            for (PageId pid : pageIds) {
+                dos.writeInt(pid.getTableId());
+                dos.writeInt(pid.getPageNumber());
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Reads page ids written by save. Pages of tables that are no longer in
+     * the catalog, or past the end of their file, are skipped.
+     */
+    public static List<PageId> load(File file) throws IOException {
+        List<PageId> pageIds = new ArrayList<PageId>();
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                int tableId = dis.readInt();
+                int pageNumber = dis.readInt();
+                DbFile dbFile;
+                try {
+                    dbFile = Database.getCatalog().getDatabaseFile(tableId);
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (dbFile instanceof HeapFile && pageNumber < ((HeapFile) dbFile).numPages()) {
+                    pageIds.add(new HeapPageId(tableId, pageNumber));
+                }
+            }
+        } finally {
+            dis.close();
+        }
+        return pageIds;
+    }
+
+    /** @return the number of pages put into the buffer pool so far */
+    public long getPagesLoaded() {
+        return pagesLoaded.get();
+    }
+
+    public void run() {
+        if (!hotPageFile.exists()) {
+            return;
+        }
+        try {
+            List<PageId> pageIds = load(hotPageFile);
+            // Keep the hottest pages that fit
+            pageIds = pageIds.subList(0, Math.min(pageIds.size(), bufferPool.getNumPages()));
+            Map<Integer, TreeSet<Integer>> pagesOfTable = new HashMap<Integer, TreeSet<Integer>>();
+            for (PageId pid : pageIds) {
+                TreeSet<Integer> pageNumbers = pagesOfTable.get(pid.getTableId());
+                if (pageNumbers == null) {
+                    pageNumbers = new TreeSet<Integer>();
+                    pagesOfTable.put(pid.getTableId(), pageNumbers);
+                }
+                pageNumbers.add(pid.getPageNumber());
+            }
+            for (Map.Entry<Integer, TreeSet<Integer>> entry : pagesOfTable.entrySet()) {
+                HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(entry.getKey());
+                this.loadTable(heapFile, entry.getValue());
+            }
+        } catch (IOException e) {
+            // The pool simply warms up on demand
+            e.printStackTrace();
+        }
+    }
+
+    /** Reads the given pages of a file in runs of consecutive pages. */
+    private void loadTable(HeapFile heapFile, TreeSet<Integer> pageNumbers) throws IOException {
+        int runStart = -1;
+        int runLength = 0;
+        for (int pageNumber : pageNumbers) {
+            if (runLength > 0 && pageNumber == runStart + runLength && runLength < MAX_RUN_PAGES) {
+                runLength++;
+                continue;
+            }
+            if (runLength > 0) {
+                this.loadRun(heapFile, runStart, runLength);
+            }
+            runStart = pageNumber;
+            runLength = 1;
+        }
+        if (runLength > 0) {
+            this.loadRun(heapFile, runStart, runLength);
+        }
+    }
+
+    private void loadRun(HeapFile heapFile, int firstPage, int count) throws IOException {
+        // Writes that finish after this point may not be in the pages read
+        long writeCount = heapFile.getWriteCount();
+        for (Page page : heapFile.readPages(firstPage, count)) {
+            if (bufferPool.cacheIfAbsent(page, heapFile, writeCount)) {
+                pagesLoaded.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BufferRing is a small private set of frames for a large sequential scan.
+ * Pages that a scan reads through its ring still live in the BufferPool, so
+ * locking, dirty tracking and transaction completion work as usual, but once
+ * the ring is full the scan recycles the frame of its own oldest page instead
+ * of evicting pages other queries are using. A page that another caller
+ * accesses without the ring is adopted by the pool and is no longer recycled.
+ * <p>
+ * A ring belongs to a single scan and is not thread-safe.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /** Default number of frames in a ring. */
+    public static final int DEFAULT_SIZE = 16;
+
+    private final int size;
+    // Pages this ring brought into the pool, oldest first
+    private final LinkedList<PageId> pages;
+
+    /**
+     * Creates a ring.
+     * @param size the number of frames the ring may occupy; must be at least 1
+     */
+    public BufferRing(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        }
+        this.size = size;
+        this.pages = new LinkedList<PageId>();
+    }
+
+    /** @return the number of frames the ring may occupy */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Records that the ring brought a page into the pool.
+     * @return the oldest page of the ring if the ring is now over its size, null otherwise
+     */
+    PageId pageLoaded(PageId pid) {
+        pages.addLast(pid);
+        if (pages.size() > size) {
+            return pages.removeFirst();
+        }
+        return null;
+    }
+
+    /** @return the pages of the ring, oldest first */
+    List<PageId> pages() {
+        return pages;
+    }
+
+    /** Forgets a page, e.g. because its frame was recycled. */
+    void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+}
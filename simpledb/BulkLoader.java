@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BulkLoader appends a stream of tuples to a HeapFile without going through
+ * the BufferPool. Full page images are built in memory, BATCH_PAGES at a
+ * time, and each batch is written past the end of the file with a single
+ * sequential write.
+ * <p>
+ * Loading is minimally logged: instead of an UPDATE record per page, each
+ * batch gets one BULK_LOAD record naming the pages it covers, forced before
+ * the pages are written. If the transaction aborts, or has not committed
+ * when the database crashes, rollback overwrites those pages with empty
+ * pages. The file is forced once all tuples are written, so the loaded
+ * pages are on disk before the transaction can commit.
+ * <p>
+ * The loader holds write locks on the pages it appends until the
+ * transaction completes, so other transactions do not see the tuples
+ * before the load commits.
+ *
+ * @see LogFile#logBulkLoad
+ */
+public class BulkLoader {
+
+    /** Default number of pages written at once. */
+    public static final int DEFAULT_BATCH_PAGES = 64;
+
+    private final TransactionId tid;
+    private final HeapFile heapFile;
+    private final int batchPages;
+    private final int pageSize;
+    private final int tupleSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+    // Page images of the current batch
+    private final byte[] batch;
+    private final ByteArrayOutputStream tupleBytes;
+    private final DataOutputStream tupleOut;
+    // Pages completed in the batch and tuples on the page being filled
+    private int batchPageCount;
+    private int pageTupleCount;
+    // Zone map of the file and the zones of the batch's pages, or null
+    private final ZoneMap zoneMap;
+    private final int[][] batchZones;
+
+    private long tuplesLoaded;
+    private long pagesWritten;
+    private long elapsedNanos;
+
+    public BulkLoader(TransactionId tid, HeapFile heapFile) {
+        this(tid, heapFile, DEFAULT_BATCH_PAGES);
+    }
+
+    /**
+     * @param tid the transaction loading the tuples; it must have been started
+     * @param heapFile the file to append to
+     * @param batchPages the number of pages written at once
+     */
+    public BulkLoader(TransactionId tid, HeapFile heapFile, int batchPages) {
+        if (batchPages < 1) {
+            throw new IllegalArgumentException("a batch must hold at least one page");
+        }
+        if (heapFile.getClass() != HeapFile.class) {
+            throw new IllegalArgumentException("bulk loading builds HeapPage images; load other page formats with inserts");
+        }
+        this.tid = tid;
+        this.heapFile = heapFile;
+        this.batchPages = batchPages;
+        this.pageSize = BufferPool.getPageSize();
+        this.tupleSize = heapFile.getTupleDesc().getSize();
+        // Same layout as HeapPage: a bitmap header followed by the slots
+        this.slotsPerPage = (pageSize * 8) / (tupleSize * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        this.batch = new byte[batchPages * pageSize];
+        this.tupleBytes = new ByteArrayOutputStream(tupleSize);
+        this.tupleOut = new DataOutputStream(tupleBytes);
+        this.zoneMap = heapFile.getZoneMap();
+        this.batchZones = zoneMap == null ? null : new int[batchPages][];
+    }
+
+    /**
+     * Opens child, appends all its tuples and closes it.
+     *
+     * @return the number of tuples loaded
+     */
+    public long load(OpIterator child) throws DbException, TransactionAbortedException, IOException {
+        long start = System.nanoTime();
+        long loaded = 0;
+        child.open();
+        try {
+            while (child.hasNext()) {
+                this.add(child.next());
+                loaded++;
+            }
+        } finally {
+            child.close();
+        }
+        this.finish();
+        elapsedNanos += System.nanoTime() - start;
+        return loaded;
+    }
+
+    /**
+     * Appends all the given tuples.
+     *
+     * @return the number of tuples loaded
+     */
+    public long load(Iterator<Tuple> tuples) throws DbException, TransactionAbortedException, IOException {
+        long start = System.nanoTime();
+        long loaded = 0;
+        while (tuples.hasNext()) {
+            this.add(tuples.next());
+            loaded++;
+        }
+        this.finish();
+        elapsedNanos += System.nanoTime() - start;
+        return loaded;
+    }
+
+    /** Copies a tuple into the next slot, writing the batch once it is full. */
+    private void add(Tuple t) throws DbException, TransactionAbortedException, IOException {
+        if (!heapFile.getTupleDesc().equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc of the tuple does not match the table");
+        }
+        tupleBytes.reset();
+        TupleDesc td = heapFile.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            StringDictionary dictionary = td.getDictionary(i);
+            if (dictionary != null) {
+                tupleOut.writeInt(dictionary.encode(t.getField(i)).getCode());
+            } else {
+                t.getField(i).serialize(tupleOut);
+            }
+        }
+        int pageStart = batchPageCount * pageSize;
+        System.arraycopy(tupleBytes.toByteArray(), 0, batch, pageStart + headerSize + pageTupleCount * tupleSize, tupleSize);
+        batch[pageStart + pageTupleCount / 8] |= (byte) (1 << (pageTupleCount % 8));
+        if (zoneMap != null) {
+            int[] zone = pageTupleCount == 0 ? zoneMap.emptyZone() : batchZones[batchPageCount];
+            batchZones[batchPageCount] = zoneMap.include(zone, t);
+        }
+        pageTupleCount++;
+        tuplesLoaded++;
+        if (pageTupleCount == slotsPerPage) {
+            batchPageCount++;
+            pageTupleCount = 0;
+            if (batchPageCount == batchPages) {
+                this.writeBatch(batchPageCount);
+            }
+        }
+    }
+
+    /** Writes the partly filled page and forces the file. */
+    private void finish() throws TransactionAbortedException, IOException {
+        int count = batchPageCount + (pageTupleCount > 0 ? 1 : 0);
+        if (count > 0) {
+            this.writeBatch(count);
+        }
+        heapFile.force();
+    }
+
+    /** Appends the first count pages of the batch to the file. */
+    private void writeBatch(int count) throws TransactionAbortedException, IOException {
+        int firstPage = this.lockNewPages(count);
+        Database.getLogFile().logBulkLoad(tid, heapFile.getId(), firstPage, count);
+        heapFile.writePageImages(firstPage, ByteBuffer.wrap(batch, 0, count * pageSize),
+                zoneMap == null ? null : Arrays.copyOf(batchZones, count));
+        boolean lastPageFull = pageTupleCount == 0;
+        for (int i = 0; i < count; i++) {
+            heapFile.updateFreeSpace(firstPage + i, i == count - 1 && !lastPageFull);
+        }
+        pagesWritten += count;
+        Arrays.fill(batch, 0, count * pageSize, (byte) 0);
+        batchPageCount = 0;
+        pageTupleCount = 0;
+    }
+
+    /**
+     * Write locks count pages past the end of the file. Another transaction
+     * appending a page first takes the lock on the page at the end of the
+     * file, so once the locks are held the end cannot move until the pages
+     * are written; if it moved while waiting, try again further on.
+     *
+     * @return the page number of the first locked page
+     */
+    private int lockNewPages(int count) throws TransactionAbortedException {
+        LockManager lockManager = Database.getBufferPool().getLockManager();
+        while (true) {
+            int firstPage = heapFile.numPages();
+            List<PageId> acquired = new ArrayList<PageId>();
+            for (int i = 0; i < count; i++) {
+                HeapPageId pid = new HeapPageId(heapFile.getId(), firstPage + i);
+                if (!lockManager.transactionContainsLock(tid, pid)) {
+                    lockManager.acquireLock(tid, pid, Permissions.READ_WRITE);
+                    acquired.add(pid);
+                }
+            }
+            if (heapFile.numPages() == firstPage) {
+                return firstPage;
+            }
+            for (PageId pid : acquired) {
+                lockManager.releaseLock(tid, pid);
+            }
+        }
+    }
+
+    /** @return the number of tuples loaded so far */
+    public long getTuplesLoaded() {
+        return tuplesLoaded;
+    }
+
+    /** @return the number of pages written so far */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /** @return the time spent in load, in nanoseconds */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** @return the number of tuples loaded per second of load, or 0 before the first load */
+    public double getTuplesPerSecond() {
+        return elapsedNanos == 0 ? 0 : tuplesLoaded * 1e9 / elapsedNanos;
+    }
+
+    /** @return the number of megabytes written per second of load, or 0 before the first load */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : (double) pagesWritten * pageSize / (1 << 20) * 1e9 / elapsedNanos;
+    }
+}
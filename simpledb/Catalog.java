@@ -147,13 +147,14 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type [pk] [dict], field type, ...) [format]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                ArrayList<StringDictionary> dictionaries = new ArrayList<StringDictionary>();
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
@@ -166,19 +167,47 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    StringDictionary dictionary = null;
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("dict") && types.get(types.size() - 1) == Type.STRING_TYPE)
+                            // Codes of a dictionary encoded string field, kept next to the table
+                            dictionary = StringDictionary.open(new File(baseFolder + "/" + name + "." + els2[0].trim() + ".dict"));
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
+                    dictionaries.add(dictionary);
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, dictionaries.toArray(new StringDictionary[0]));
+                // An optional storage format follows the field list
+                String format = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (format.equals("") || format.equals("heap"))
+                    tabHf = new HeapFile(tableFile, t);
+                else if ((format.equals("slotted") || format.equals("column")) && dictionaries.size() > Collections.frequency(dictionaries, null)) {
+                    System.out.println("Dictionary encoded fields are not supported by storage format " + format);
+                    System.exit(0);
+                    return;
+                }
+                else if (format.equals("slotted"))
+                    tabHf = new SlottedHeapFile(tableFile, t);
+                else if (format.equals("pax"))
+                    tabHf = new PaxHeapFile(tableFile, t);
+                else if (format.equals("compressed"))
+                    tabHf = new CompressedHeapFile(tableFile, t);
+                else if (format.equals("column"))
+                    tabHf = new ColumnFile(tableFile, t);
+                else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) page replacement. Resident pages sit in a circular
+ * array of frames, each with a reference bit that is set whenever the page
+ * is accessed. To pick a victim the clock hand sweeps the frames, clearing
+ * reference bits as it goes, and stops at the first evictable page whose bit
+ * is already clear.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private Map<PageId, Integer> frameOfPage;
+    // Frames that were vacated and can be reused before growing the array
+    private Deque<Integer> freeFrames;
+    private int used;
+    private int hand;
+
+    public ClockReplacementPolicy() {
+        frames = new PageId[16];
+        referenced = new boolean[16];
+        frameOfPage = new HashMap<PageId, Integer>();
+        freeFrames = new ArrayDeque<Integer>();
+        used = 0;
+        hand = 0;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOfPage.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        int frame;
+        if (!freeFrames.isEmpty()) {
+            frame = freeFrames.poll();
+        } else {
+            if (used == frames.length) {
+                frames = Arrays.copyOf(frames, frames.length * 2);
+                referenced = Arrays.copyOf(referenced, referenced.length * 2);
+            }
+            frame = used++;
+        }
+        frames[frame] = pid;
+        referenced[frame] = true;
+        frameOfPage.put(pid, frame);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer frame = frameOfPage.get(pid);
+        if (frame != null) {
+            referenced[frame] = true;
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOfPage.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.add(frame);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Candidate candidate) {
+        if (used == 0) {
+            return null;
+        }
+        // Two full sweeps are enough: the first one clears every reference
+        // bit, so the second one sees every page as a second-chance victim.
+        for (int step = 0; step < 2 * used; step++) {
+            int frame = hand;
+            hand = (hand + 1) % used;
+            PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (candidate.isEvictable(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<PageId> getResidentPages() {
+        // Referenced pages first, each group in the order the hand reaches them
+        List<PageId> referencedPages = new ArrayList<PageId>();
+        List<PageId> otherPages = new ArrayList<PageId>();
+        for (int step = 0; step < used; step++) {
+            int frame = (hand + step) % used;
+            if (frames[frame] != null) {
+                (referenced[frame] ? referencedPages : otherPages).add(frames[frame]);
+            }
+        }
+        referencedPages.addAll(otherPages);
+        return referencedPages;
+    }
+
+    public ReplacementPolicy newInstance() {
+        return new ClockReplacementPolicy();
+    }
+}
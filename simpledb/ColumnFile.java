@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores each column of its TupleDesc in a
+ * chain of pages of its own, so a scan that needs a few columns of a wide
+ * table only reads the pages of those columns. Column i is kept in the
+ * file f.i next to the file f given to the constructor, as ColumnPages of
+ * fixed size values. A row is the same position in every chain: row r of
+ * column i is slot r % n of page r / n, where n is the number of values of
+ * the column's type that fit on a page.
+ * <p>
+ * Which rows are in use is recorded by a bitmap, kept as ValidityPages in
+ * the file f.valid under the column number VALIDITY. A RecordId of a
+ * ColumnFile names the bitmap page and the bit of its row. Every access
+ * locks the bitmap page of a row before the pages holding its values, so
+ * a reader never sees a row that an uncommitted insert is still filling in.
+ * <p>
+ * Tuples are inserted and deleted through the BufferPool like those of a
+ * HeapFile. Scans of all columns go through iterator(tid); ColumnScan reads
+ * only some of them.
+ *
+ * @see ColumnPage
+ * @see ValidityPage
+ * @see ColumnScan
+ */
+public class ColumnFile implements DbFile {
+
+    /** The column number of the bitmap of used rows in ColumnPageIds. */
+    public static final int VALIDITY = -1;
+
+    private final File f;
+    private final TupleDesc td;
+    // One channel per column, plus the bitmap in the last entry; opened on demand
+    private final FileChannel[] channels;
+    // No bitmap page before this one has a free row
+    private int firstPageWithSpace;
+
+    /**
+     * Constructs a column file backed by the files f.0 to f.n-1 and f.valid,
+     * where n is the number of fields of td. The files are created when
+     * their first page is written.
+     *
+     * @param f
+     *            the file the names of the column files are derived from;
+     *            it is not used itself
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.channels = new FileChannel[td.numFields() + 1];
+    }
+
+    /** @return the file the names of the column files are derived from */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return the file backing the given column, or the bitmap for VALIDITY */
+    public File getColumnFile(int column) {
+        return new File(f.getPath() + (column == VALIDITY ? ".valid" : "." + column));
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile: the hash code of
+     * the absolute path of the file given to the constructor.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return a TupleDesc of the given columns, in the given order, with the
+     *         names they have in this file
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** Returns the channel to the file of a column, opening it if needed. */
+    private synchronized FileChannel getChannel(int column) throws IOException {
+        int index = column == VALIDITY ? td.numFields() : column;
+        if (channels[index] == null) {
+            channels[index] = new RandomAccessFile(this.getColumnFile(column), "rw").getChannel();
+        }
+        return channels[index];
+    }
+
+    /** @return the number of pages in the chain of a column, or of the bitmap for VALIDITY */
+    public int numPages(int column) {
+        try {
+            return (int) (this.getChannel(column).size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return (int) (this.getColumnFile(column).length() / BufferPool.getPageSize());
+        }
+    }
+
+    /** @return the number of pages of all columns and the bitmap together */
+    public int numPages() {
+        int pages = this.numPages(VALIDITY);
+        for (int i = 0; i < td.numFields(); i++) {
+            pages += this.numPages(i);
+        }
+        return pages;
+    }
+
+    /** @return the number of rows a page of the given column holds */
+    public int rowsPerPage(int column) {
+        return column == VALIDITY ? ValidityPage.getNumSlots() : ColumnPage.getNumSlots(td.getFieldType(column));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            ColumnPageId cpid = (ColumnPageId) pid;
+            int column = cpid.getColumn();
+            int numPages = this.numPages(column);
+            if (cpid.getPageNumber() < 0 || (column == VALIDITY && numPages < cpid.getPageNumber())) {
+                throw new IllegalArgumentException();
+            }
+            if (cpid.getPageNumber() >= numPages) {
+                // The bitmap bounds scans, so a new bitmap page is written
+                // right away, like a new HeapPage. Values past the end of a
+                // column are never read before their row is set in it
+                Page page = this.createPage(cpid, new byte[BufferPool.getPageSize()]);
+                if (column == VALIDITY) {
+                    this.writePage(page);
+                }
+                return page;
+            }
+            byte[] data = new byte[BufferPool.getPageSize()];
+            long position = (long) BufferPool.getPageSize() * cpid.getPageNumber();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            FileChannel fileChannel = this.getChannel(column);
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return this.createPage(cpid, data);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private Page createPage(ColumnPageId pid, byte[] data) throws IOException {
+        if (pid.getColumn() == VALIDITY) {
+            return new ValidityPage(pid, data);
+        }
+        return new ColumnPage(pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        long position = (long) BufferPool.getPageSize() * pid.getPageNumber();
+        ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
+        FileChannel fileChannel = this.getChannel(pid.getColumn());
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer, position + buffer.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc of the tuple does not match the table");
+        }
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        // Find a free row; the bitmap page is write locked before any value is written
+        ValidityPage validityPage = null;
+        int slot = -1;
+        for (int i = this.getFirstPageWithSpace(); slot < 0; i++) {
+            ColumnPageId pid = new ColumnPageId(this.getId(), VALIDITY, i);
+            boolean heldLock = Database.getBufferPool().holdsLock(tid, pid);
+            validityPage = (ValidityPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            slot = validityPage.firstFreeSlot();
+            if (slot < 0) {
+                this.pageFull(i);
+                if (!heldLock) {
+                    // Nothing was changed on the page
+                    Database.getBufferPool().releasePage(tid, pid);
+                }
+            }
+        }
+        long row = (long) validityPage.getId().getPageNumber() * ValidityPage.getNumSlots() + slot;
+        for (int i = 0; i < td.numFields(); i++) {
+            int rows = this.rowsPerPage(i);
+            ColumnPageId pid = new ColumnPageId(this.getId(), i, (int) (row / rows));
+            ColumnPage columnPage = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            columnPage.setField((int) (row % rows), t.getField(i));
+            modifiedPages.add(columnPage);
+        }
+        validityPage.markSlotUsed(slot, true);
+        modifiedPages.add(validityPage);
+        t.setRecordId(new RecordId(validityPage.getId(), slot));
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !(recordId.getPageId() instanceof ColumnPageId)
+                || ((ColumnPageId) recordId.getPageId()).getColumn() != VALIDITY
+                || recordId.getPageId().getTableId() != this.getId()) {
+            throw new DbException("The tuple is not in this file.");
+        }
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        ValidityPage validityPage = (ValidityPage) Database.getBufferPool().getPage(tid, recordId.getPageId(), Permissions.READ_WRITE);
+        if (!validityPage.isSlotUsed(recordId.getTupleNumber())) {
+            throw new DbException("The tuple slot is already empty.");
+        }
+        validityPage.markSlotUsed(recordId.getTupleNumber(), false);
+        this.pageFreed(validityPage.getId().getPageNumber());
+        modifiedPages.add(validityPage);
+        return modifiedPages;
+    }
+
+    private synchronized int getFirstPageWithSpace() {
+        return firstPageWithSpace;
+    }
+
+    private synchronized void pageFull(int pageNumber) {
+        if (firstPageWithSpace == pageNumber) {
+            firstPageWithSpace = pageNumber + 1;
+        }
+    }
+
+    private synchronized void pageFreed(int pageNumber) {
+        firstPageWithSpace = Math.min(firstPageWithSpace, pageNumber);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+        return new ColumnFileIterator(tid, this, columns);
+    }
+
+    /**
+     * Returns an iterator over the rows of this file that only reads the
+     * pages of the given columns. Its tuples hold those columns, in the
+     * given order, and have the TupleDesc getTupleDesc(columns).
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        for (int column : columns) {
+            if (column < 0 || column >= td.numFields()) {
+                throw new IllegalArgumentException("no column " + column + " in " + td);
+            }
+        }
+        return new ColumnFileIterator(tid, this, columns);
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * Iterates over the rows of a ColumnFile, reading only the pages of the
+ * requested columns. Each bitmap page is read locked before the values of
+ * its rows are read.
+ */
+public class ColumnFileIterator extends AbstractDbFileIterator {
+
+    private final TransactionId tid;
+    private final ColumnFile file;
+    private final int[] columns;
+    private final TupleDesc td;
+    // The bitmap page being iterated, or null between pages
+    private ValidityPage validityPage;
+    private int pageNumber;
+    private int slot;
+    // Number of bitmap pages when the iterator was opened; -1 while closed
+    private int numPages = -1;
+    // The page of each requested column that was read last
+    private ColumnPage[] columnPages;
+
+    public ColumnFileIterator(TransactionId tid, ColumnFile file, int[] columns) {
+        this.tid = tid;
+        this.file = file;
+        this.columns = columns.clone();
+        this.td = file.getTupleDesc(columns);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        numPages = file.numPages(ColumnFile.VALIDITY);
+        pageNumber = 0;
+        validityPage = null;
+        columnPages = new ColumnPage[columns.length];
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (numPages >= 0 && pageNumber < numPages) {
+            if (validityPage == null) {
+                ColumnPageId pid = new ColumnPageId(file.getId(), ColumnFile.VALIDITY, pageNumber);
+                validityPage = (ValidityPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                slot = 0;
+            }
+            int used = validityPage.nextUsedSlot(slot);
+            if (used < 0) {
+                validityPage = null;
+                pageNumber++;
+                continue;
+            }
+            slot = used + 1;
+            long row = (long) pageNumber * ValidityPage.getNumSlots() + used;
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < columns.length; i++) {
+                int rows = file.rowsPerPage(columns[i]);
+                int columnPage = (int) (row / rows);
+                if (columnPages[i] == null || columnPages[i].getId().getPageNumber() != columnPage) {
+                    ColumnPageId pid = new ColumnPageId(file.getId(), columns[i], columnPage);
+                    columnPages[i] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                }
+                t.setField(i, columnPages[i].getField((int) (row % rows)));
+            }
+            t.setRecordId(new RecordId(validityPage.getId(), used));
+            return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    public void close() {
+        super.close();
+        numPages = -1;
+        validityPage = null;
+        columnPages = null;
+    }
+}
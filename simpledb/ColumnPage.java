@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnPage stores the values of one column of a ColumnFile for a range
+ * of consecutive rows. Values have the fixed size of their type, so row r
+ * of the column is slot r % getNumSlots() of page r / getNumSlots() of the
+ * column's chain, and the page has no header at all. Whether a row is in
+ * use is recorded by the ValidityPages of the file, not here.
+ * <p>
+ * Values are decoded from the page image when they are requested, so a
+ * scan only pays for the values it reads.
+ *
+ * @see ColumnFile
+ * @see ValidityPage
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;
+    // The page image; values are read from and written into it in place
+    final byte[] data;
+    private final ByteBuffer buffer;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean isDirty;
+    private TransactionId tid;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * page takes ownership of the array.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /** @return the number of values of the given type that fit on a page */
+    public static int getNumSlots(Type type) {
+        return BufferPool.getPageSize() / type.getLen();
+    }
+
+    /** @return the number of values that fit on this page */
+    public int getNumSlots() {
+        return getNumSlots(type);
+    }
+
+    /** @return the value in the given slot */
+    public Field getField(int slot) {
+        return type.parse(buffer, slot * type.getLen());
+    }
+
+    /** Overwrites the value in the given slot. */
+    public void setField(int slot, Field f) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(type.getLen());
+        try {
+            f.serialize(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(bytes.toByteArray(), 0, data, slot * type.getLen(), type.getLen());
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData.clone();
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a ColumnFile. Each column of the table
+ * has its own chain of pages, numbered from 0, and so does the bitmap of
+ * used rows.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a page of one column of a
+     * table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table, or ColumnFile.VALIDITY for
+     *   the bitmap of used rows
+     * @param pgNo The page number in the chain of that column
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose chain this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    /** @return the page number in the chain of the column */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return (tableId * 100 + pgNo) * 31 + column;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId)) {
+            return false;
+        }
+        ColumnPageId other = (ColumnPageId) o;
+        return tableId == other.tableId && column == other.column && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * ColumnScan is a sequential scan of a ColumnFile that only reads the
+ * columns a query needs. Its tuples hold just those columns, named
+ * tableAlias.fieldName like the fields of a SeqScan, so operators above it
+ * look fields up by name as usual.
+ *
+ * @see ColumnFile#iterator(TransactionId, int[])
+ */
+public class ColumnScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int[] columns;
+
+    /**
+     * Creates a scan of some of the columns of a table stored in a
+     * ColumnFile.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a ColumnFile
+     * @param tableAlias
+     *            the alias of this table, used as the prefix of field names
+     * @param columns
+     *            the columns to read, in the order of the returned fields
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        super(tid, tableid, tableAlias);
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof ColumnFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not stored in a ColumnFile");
+        }
+        this.tid = tid;
+        this.columns = columns.clone();
+    }
+
+    /** @return the columns of the table this operator reads */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /** The columns belong to one table, so the scan cannot be moved to another. */
+    public void reset(int tableid, String tableAlias) {
+        throw new UnsupportedOperationException("a ColumnScan cannot be reset to another table");
+    }
+
+    protected DbFileIterator createIterator(DbFile file) {
+        return ((ColumnFile) file).iterator(tid, columns);
+    }
+
+    /**
+     * @return the TupleDesc of the scanned columns, with field names
+     *         prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = super.getTupleDesc();
+        String[] prefixedFieldsNames = new String[columns.length];
+        Type[] fieldTypes = new Type[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            prefixedFieldsNames[i] = td.getFieldName(columns[i]);
+            fieldTypes[i] = td.getFieldType(columns[i]);
+        }
+        return new TupleDesc(fieldTypes, prefixedFieldsNames);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Checks that writes of committed pages never put a later transaction's
+ * changes on disk, nor let the zone map lose them. It runs two checks for
+ * each way a committed page is written (flushAllPages, the page cleaner
+ * and eviction):
+ * <ul>
+ * <li>tuples on disk: inserts a tuple with T1 and commits, then locks the
+ * page with T2 and inserts a second tuple into it without marking it
+ * dirty, as T2 would in the middle of an operation. After the write, the
+ * page on disk must hold T1's tuple only.
+ * <li>matching rows: with the zone of a page made exact for the values 1
+ * and 3, deletes 3 and commits, then inserts 2, which is inside the zone,
+ * and writes the page between the insert and the BufferPool marking it
+ * dirty. Once the insert commits, a scan for 2 must find it.
+ * </ul>
+ * Usage: java simpledb.CommittedPageWriteCheck
+ */
+public class CommittedPageWriteCheck {
+
+    private interface Writer {
+        void write() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Writer> writers = new LinkedHashMap<String, Writer>();
+        writers.put("flushAllPages", new Writer() {
+            public void write() throws Exception {
+                Database.getBufferPool().flushAllPages();
+            }
+        });
+        writers.put("cleaner", new Writer() {
+            public void write() throws Exception {
+                PageCleaner cleaner = Database.getBufferPool().getPageCleaner();
+                cleaner.setDirtyRatioThresholds(0, 0);
+                cleaner.writeAboveForegroundRatio();
+            }
+        });
+        writers.put("eviction", new Writer() {
+            public void write() throws Exception {
+                // With one page of another table pinned, reading a second
+                // one has to evict the committed page
+                File other = File.createTempFile("other", ".dat");
+                other.deleteOnExit();
+                HeapFile otherFile = Utility.createEmptyHeapFile(other.getAbsolutePath(), 2);
+                HeapPageId secondPage = new HeapPageId(otherFile.getId(), 1);
+                otherFile.writePage(new HeapPage(secondPage, HeapPage.createEmptyPageData()));
+                TransactionId tid = new TransactionId();
+                HeapPageId firstPage = new HeapPageId(otherFile.getId(), 0);
+                Database.getBufferPool().pinPage(tid, firstPage, Permissions.READ_ONLY);
+                Database.getBufferPool().getPage(tid, secondPage, Permissions.READ_ONLY);
+                Database.getBufferPool().unpinPage(tid, firstPage);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        });
+        boolean passed = true;
+        System.out.println("write\ttuples on disk\texpected");
+        for (Map.Entry<String, Writer> entry : writers.entrySet()) {
+            int onDisk = checkTuplesOnDisk(entry.getValue());
+            System.out.printf("%s\t%d\t%d%n", entry.getKey(), onDisk, 1);
+            passed &= onDisk == 1;
+        }
+        System.out.println("write\tmatching rows\texpected");
+        for (Map.Entry<String, Writer> entry : writers.entrySet()) {
+            int matching = checkMatchingRows(entry.getValue());
+            System.out.printf("%s\t%d\t%d%n", entry.getKey(), matching, 1);
+            passed &= matching == 1;
+        }
+        System.out.println(passed ? "OK" : "FAILED");
+    }
+
+    /** @return the number of tuples on disk after the write */
+    private static int checkTuplesOnDisk(Writer writer) throws Exception {
+        // Two frames, and no cleaning until a writer asks for it
+        Database.resetBufferPool(2).getPageCleaner().setDirtyRatioThresholds(1, 1);
+        File f = File.createTempFile("committed", ".dat");
+        f.deleteOnExit();
+        HeapFile file = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Database.getBufferPool().insertTuple(t1.getId(), file.getId(), Utility.getHeapTuple(1, 2));
+        t1.commit();
+
+        TransactionId t2 = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(t2, pid, Permissions.READ_WRITE);
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+
+        writer.write();
+        int onDisk = countTuples(((HeapPage) file.readPage(pid)).iterator());
+        Database.getBufferPool().transactionComplete(t2, false);
+        return onDisk;
+    }
+
+    /** @return the number of rows a scan for the inserted value finds */
+    private static int checkMatchingRows(final Writer writer) throws Exception {
+        Database.resetBufferPool(2).getPageCleaner().setDirtyRatioThresholds(1, 1);
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zones").deleteOnExit();
+        Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        // Writes the page once the insert is on it, before the BufferPool marks it dirty
+        final boolean[] writeOnInsert = new boolean[1];
+        HeapFile file = new HeapFile(f, Utility.getTupleDesc(2)) {
+            public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+                    throws DbException, IOException, TransactionAbortedException {
+                ArrayList<Page> pages = super.insertTuple(tid, t);
+                if (writeOnInsert[0]) {
+                    try {
+                        writer.write();
+                    } catch (Exception e) {
+                        throw new DbException(e.toString());
+                    }
+                }
+                return pages;
+            }
+        };
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+
+        Transaction t0 = new Transaction();
+        t0.start();
+        Database.getBufferPool().insertTuple(t0.getId(), file.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().insertTuple(t0.getId(), file.getId(), Utility.getHeapTuple(3, 2));
+        t0.commit();
+        // Makes the zone of the page exact: 1 to 3
+        Database.getBufferPool().flushAllPages();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        DbFileIterator it = file.iterator(t1.getId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == 3) {
+                Database.getBufferPool().deleteTuple(t1.getId(), t);
+            }
+        }
+        it.close();
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        writeOnInsert[0] = true;
+        Database.getBufferPool().insertTuple(t2.getId(), file.getId(), Utility.getHeapTuple(2, 2));
+        writeOnInsert[0] = false;
+        t2.commit();
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        HeapFileIterator scan = new HeapFileIterator(t3.getId(), file, null,
+                Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new IntField(2))));
+        scan.open();
+        int matching = countTuples(scan);
+        scan.close();
+        t3.commit();
+        return matching;
+    }
+
+    private static int countTuples(Iterator<Tuple> it) {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static int countTuples(DbFileIterator it) throws DbException, TransactionAbortedException {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored on disk
+ * compressed with LzCodec. Pages are compressed in writePage and
+ * decompressed in readPage, so the BufferPool and everything above it
+ * only ever see ordinary HeapPages.
+ * <p>
+ * Compressed pages vary in size, so the backing file is a sequence of
+ * extents, and an extent map in a file named after it with an ".extents"
+ * suffix records for each page number the offset of its extent, the
+ * length of the compressed page and the capacity of the extent. Capacities
+ * are rounded up to EXTENT_ALIGNMENT bytes, so a page that grows a little
+ * is rewritten in place; one that no longer fits is written to a new
+ * extent at the end of the file, and its entry in the map is only updated
+ * once the new extent is written. Space of abandoned extents is not
+ * reused. A page with no extent reads as an empty page.
+ * <p>
+ * A table is stored this way if its line in the catalog file ends with
+ * "compressed", e.g. <tt>logs (ts int, message string) compressed</tt>.
+ *
+ * @see LzCodec
+ * @see CompressionBenchmark
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Extent capacities are multiples of this many bytes. */
+    public static final int EXTENT_ALIGNMENT = 256;
+
+    // Bytes per page in the extent map: offset, length and capacity
+    private static final int EXTENT_ENTRY_SIZE = 16;
+
+    private final File extentFile;
+    // The extent map, loaded on first use; guarded by this
+    private FileChannel extentChannel;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numExtents;
+    // Where the next new extent goes; guarded by this
+    private long dataEnd;
+
+    private final AtomicLong bytesWritten;
+    private final AtomicLong compressedBytesWritten;
+    private final AtomicLong bytesRead;
+    private final AtomicLong compressedBytesRead;
+    private final AtomicLong compressNanos;
+    private final AtomicLong decompressNanos;
+
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, false);
+        this.extentFile = new File(f.getPath() + ".extents");
+        this.bytesWritten = new AtomicLong();
+        this.compressedBytesWritten = new AtomicLong();
+        this.bytesRead = new AtomicLong();
+        this.compressedBytesRead = new AtomicLong();
+        this.compressNanos = new AtomicLong();
+        this.decompressNanos = new AtomicLong();
+    }
+
+    /** Loads the extent map if it has not been loaded yet. */
+    private synchronized void loadExtents() throws IOException {
+        if (extentChannel != null) {
+            return;
+        }
+        FileChannel channel = new RandomAccessFile(extentFile, "rw").getChannel();
+        int count = (int) (channel.size() / EXTENT_ENTRY_SIZE);
+        ByteBuffer map = ByteBuffer.allocate(count * EXTENT_ENTRY_SIZE);
+        while (map.hasRemaining()) {
+            if (channel.read(map, map.position()) < 0) {
+                break;
+            }
+        }
+        map.flip();
+        offsets = new long[Math.max(count, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = map.getLong();
+            lengths[i] = map.getInt();
+            capacities[i] = map.getInt();
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        numExtents = count;
+        extentChannel = channel;
+    }
+
+    /** Makes room in the extent map for the given page number. */
+    private synchronized void growExtents(int pageNumber) {
+        if (pageNumber < offsets.length) {
+            return;
+        }
+        int size = Math.max(pageNumber + 1, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        capacities = Arrays.copyOf(capacities, size);
+    }
+
+    protected int storedPages() throws IOException {
+        this.loadExtents();
+        synchronized (this) {
+            return numExtents;
+        }
+    }
+
+    /**
+     * Reads and decompresses pages. Pages whose extents lie back to back
+     * in the file are read with a single read.
+     */
+    protected void readImages(int firstPage, ByteBuffer[] buffers) throws IOException {
+        this.loadExtents();
+        int count = buffers.length;
+        long[] pageOffsets = new long[count];
+        int[] pageLengths = new int[count];
+        int[] pageCapacities = new int[count];
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                int pageNumber = firstPage + i;
+                if (pageNumber < numExtents) {
+                    pageOffsets[i] = offsets[pageNumber];
+                    pageLengths[i] = lengths[pageNumber];
+                    pageCapacities[i] = capacities[pageNumber];
+                }
+            }
+        }
+        FileChannel channel = this.getChannel();
+        byte[] page = new byte[BufferPool.getPageSize()];
+        int runStart = 0;
+        while (runStart < count) {
+            if (pageLengths[runStart] == 0) {
+                // Never written: an empty page
+                runStart++;
+                continue;
+            }
+            int runEnd = runStart + 1;
+            while (runEnd < count && pageLengths[runEnd] > 0
+                    && pageOffsets[runEnd] == pageOffsets[runEnd - 1] + pageCapacities[runEnd - 1]) {
+                runEnd++;
+            }
+            long runOffset = pageOffsets[runStart];
+            int runBytes = (int) (pageOffsets[runEnd - 1] + pageLengths[runEnd - 1] - runOffset);
+            ByteBuffer compressed = ByteBuffer.allocate(runBytes);
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, runOffset + compressed.position()) < 0) {
+                    throw new IOException("extent of page " + (firstPage + runStart) + " is past the end of the file");
+                }
+            }
+            compressedBytesRead.addAndGet(runBytes);
+            for (int i = runStart; i < runEnd; i++) {
+                long start = System.nanoTime();
+                int n = LzCodec.decompress(compressed.array(), (int) (pageOffsets[i] - runOffset), pageLengths[i], page);
+                decompressNanos.addAndGet(System.nanoTime() - start);
+                if (n != page.length) {
+                    throw new IOException("page " + (firstPage + i) + " decompressed to " + n + " bytes");
+                }
+                buffers[i].put(page);
+                bytesRead.addAndGet(page.length);
+            }
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Compresses and writes pages, each to its own extent. The extent map
+     * entry of a page is written after its data.
+     */
+    protected void writeImages(int firstPage, ByteBuffer[] buffers) throws IOException {
+        this.loadExtents();
+        int pageSize = BufferPool.getPageSize();
+        int pageNumber = firstPage;
+        byte[] page = new byte[pageSize];
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                buffer.get(page);
+                this.writeImage(pageNumber++, page);
+            }
+        }
+    }
+
+    private void writeImage(int pageNumber, byte[] page) throws IOException {
+        long start = System.nanoTime();
+        byte[] compressed = LzCodec.compress(page, 0, page.length);
+        compressNanos.addAndGet(System.nanoTime() - start);
+        long offset;
+        int capacity;
+        synchronized (this) {
+            this.growExtents(pageNumber);
+            if (pageNumber < numExtents && lengths[pageNumber] > 0 && compressed.length <= capacities[pageNumber]) {
+                offset = offsets[pageNumber];
+                capacity = capacities[pageNumber];
+            } else {
+                capacity = (compressed.length + EXTENT_ALIGNMENT - 1) / EXTENT_ALIGNMENT * EXTENT_ALIGNMENT;
+                offset = dataEnd;
+                dataEnd += capacity;
+            }
+        }
+        ByteBuffer data = ByteBuffer.wrap(compressed);
+        FileChannel channel = this.getChannel();
+        while (data.hasRemaining()) {
+            channel.write(data, offset + data.position());
+        }
+        ByteBuffer entry = ByteBuffer.allocate(EXTENT_ENTRY_SIZE);
+        entry.putLong(offset).putInt(compressed.length).putInt(capacity).flip();
+        synchronized (this) {
+            offsets[pageNumber] = offset;
+            lengths[pageNumber] = compressed.length;
+            capacities[pageNumber] = capacity;
+            numExtents = Math.max(numExtents, pageNumber + 1);
+        }
+        while (entry.hasRemaining()) {
+            extentChannel.write(entry, (long) pageNumber * EXTENT_ENTRY_SIZE + entry.position());
+        }
+        bytesWritten.addAndGet(page.length);
+        compressedBytesWritten.addAndGet(compressed.length);
+    }
+
+    /** Forces the pages and the extent map to disk. */
+    public void force() throws IOException {
+        super.force();
+        this.loadExtents();
+        extentChannel.force(false);
+    }
+
+    /** @return the number of bytes the extents of this file take on disk */
+    public synchronized long getDiskBytes() throws IOException {
+        this.loadExtents();
+        return dataEnd;
+    }
+
+    /** @return the number of uncompressed bytes written so far */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** @return the number of compressed bytes written so far */
+    public long getCompressedBytesWritten() {
+        return compressedBytesWritten.get();
+    }
+
+    /** @return the number of uncompressed bytes read so far */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /** @return the number of compressed bytes read so far */
+    public long getCompressedBytesRead() {
+        return compressedBytesRead.get();
+    }
+
+    /** @return the time spent compressing pages, in nanoseconds */
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    /** @return the time spent decompressing pages, in nanoseconds */
+    public long getDecompressNanos() {
+        return decompressNanos.get();
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Measures what page compression saves in I/O against what it costs in
+ * CPU. It copies a heap file into a temporary CompressedHeapFile and
+ * prints the compression ratio, the compression and decompression
+ * throughput of LzCodec, and the time to read all pages of either file.
+ * Run it on files larger than the OS page cache, or after dropping the
+ * cache, to measure the disk rather than memory.
+ * <p>
+ * Usage: java simpledb.CompressionBenchmark file.dat numColumns [batchPages]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: CompressionBenchmark file.dat numColumns [batchPages]");
+            return;
+        }
+        HeapFile source = Utility.openHeapFile(Integer.parseInt(args[1]), new File(args[0]));
+        int batchPages = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int numPages = source.numPages();
+        if (numPages == 0) {
+            System.err.println(args[0] + " has no pages");
+            return;
+        }
+        File targetFile = File.createTempFile("compressed", ".dat");
+        File extentFile = new File(targetFile.getPath() + ".extents");
+        targetFile.deleteOnExit();
+        extentFile.deleteOnExit();
+        CompressedHeapFile target = new CompressedHeapFile(targetFile, source.getTupleDesc());
+        Database.getCatalog().addTable(target, UUID.randomUUID().toString());
+
+        for (int first = 0; first < numPages; first += batchPages) {
+            target.writePages(source.readPages(first, Math.min(batchPages, numPages - first)));
+        }
+        target.force();
+        double megabytes = (double) numPages * BufferPool.getPageSize() / (1 << 20);
+        System.out.printf("pages\t%d%n", numPages);
+        System.out.printf("size\t%.1f MB -> %.1f MB on disk (%.1f MB compressed data)%n", megabytes,
+                target.getDiskBytes() / (double) (1 << 20), target.getCompressedBytesWritten() / (double) (1 << 20));
+        System.out.printf("ratio\t%.2f%n", (double) target.getBytesWritten() / target.getCompressedBytesWritten());
+        System.out.printf("compress\t%.0f MB/s%n", megabytes / (target.getCompressNanos() / 1e9));
+
+        double plainSeconds = readAll(source, batchPages);
+        double compressedSeconds = readAll(target, batchPages);
+        System.out.printf("decompress\t%.0f MB/s%n", megabytes / (target.getDecompressNanos() / 1e9));
+        System.out.printf("read plain\t%.3fs\t%.0f MB/s%n", plainSeconds, megabytes / plainSeconds);
+        System.out.printf("read compressed\t%.3fs\t%.0f MB/s (%.3fs decompressing)%n", compressedSeconds,
+                megabytes / compressedSeconds, target.getDecompressNanos() / 1e9);
+    }
+
+    /** @return the seconds taken to read all pages of the file */
+    private static double readAll(HeapFile file, int batchPages) throws Exception {
+        long start = System.nanoTime();
+        int numPages = file.numPages();
+        for (int first = 0; first < numPages; first += batchPages) {
+            file.readPages(first, Math.min(batchPages, numPages - first));
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a string of a dictionary encoded column as
+ * its code in the column's StringDictionary. It is a STRING_TYPE field and
+ * equals StringFields with the same value, but comparing it for equality
+ * with another field of the same dictionary only compares the codes. The
+ * string is only looked up when the value is needed, e.g. by Project,
+ * which returns StringFields.
+ * <p>
+ * serialize writes the field the way a StringField does; pages of a
+ * dictionary encoded column store just the code.
+ */
+public class DictionaryField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final transient StringDictionary dictionary;
+
+    /**
+     * Constructor.
+     *
+     * @param code
+     *            The code of the value in the dictionary
+     * @param dictionary
+     *            The dictionary of the column
+     */
+    public DictionaryField(int code, StringDictionary dictionary) {
+        this.code = code;
+        this.dictionary = dictionary;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /** @return the string this field stands for */
+    public String getValue() {
+        return dictionary.decode(code);
+    }
+
+    /**
+     * @return field with its value looked up if it is a DictionaryField,
+     *         otherwise field itself
+     */
+    public static Field decode(Field field) {
+        if (field instanceof DictionaryField) {
+            return new StringField(((DictionaryField) field).getValue(), Type.STRING_LEN);
+        }
+        return field;
+    }
+
+    public String toString() {
+        return this.getValue();
+    }
+
+    public int hashCode() {
+        // Must match StringField, which equal fields may be
+        return this.getValue().hashCode();
+    }
+
+    public boolean equals(Object field) {
+        if (field instanceof DictionaryField && ((DictionaryField) field).dictionary == dictionary) {
+            return ((DictionaryField) field).code == code;
+        }
+        if (!(field instanceof StringField || field instanceof DictionaryField)) {
+            return false;
+        }
+        return StringField.valueOf((Field) field).equals(this.getValue());
+    }
+
+    /** Writes the value as a StringField of STRING_LEN characters. */
+    public void serialize(DataOutputStream dos) throws IOException {
+        new StringField(this.getValue(), Type.STRING_LEN).serialize(dos);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field. Return
+     * semantics are as specified by Field.compare
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if ((op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)
+                && val instanceof DictionaryField && ((DictionaryField) val).dictionary == dictionary) {
+            return (((DictionaryField) val).code == code) == (op == Predicate.Op.EQUALS);
+        }
+        return StringField.compare(this.getValue(), op, StringField.valueOf(val));
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    public Type getType() {
+        return Type.STRING_TYPE;
+    }
+
+    // The dictionary does not travel with the field; send the string instead
+    private Object writeReplace() {
+        return new StringField(this.getValue(), Type.STRING_LEN);
+    }
+}
@@ -11,6 +11,8 @@ public class Filter extends Operator {
     private Predicate p;
     private OpIterator child;
     private TupleDesc td;
+    // The scan the predicate is pushed down to while this filter is open
+    private SeqScan pushedTo;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -28,6 +30,31 @@ public class Filter extends Operator {
         this.td = child.getTupleDesc();
     }
 
+    /**
+     * Hands the predicate to the scan below this filter and any filters
+     * directly under it, so it can be evaluated on the pages, until this
+     * filter is closed. The tuples are still checked here, as not every
+     * scan applies it.
+     */
+    private void pushDown() {
+        OpIterator below = child;
+        while (below instanceof Filter) {
+            below = ((Filter) below).child;
+        }
+        if (below instanceof SeqScan) {
+            pushedTo = (SeqScan) below;
+            pushedTo.pushDownPredicate(p);
+        }
+    }
+
+    /** Takes the predicate back from the scan pushDown handed it to. */
+    private void withdraw() {
+        if (pushedTo != null) {
+            pushedTo.withdrawPredicate(p);
+            pushedTo = null;
+        }
+    }
+
     public Predicate getPredicate() {
         // some code goes here
         return p;
@@ -41,6 +68,9 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        // The scan picks up pushed predicates when it is opened
+        this.withdraw();
+        this.pushDown();
         child.open();
         super.open();
     }
@@ -49,6 +79,7 @@ public class Filter extends Operator {
         // some code goes here
         super.close();
         child.close();
+        this.withdraw();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have an empty slot, so an
+ * insert can go straight to such a page instead of reading every page of the
+ * file. The map is kept in a bitmap next to the file, in a file named after
+ * it with a ".fsm" suffix.
+ * <p>
+ * The map is only a hint. A page it lists may turn out to be full (the
+ * inserting transaction then marks it full and moves on); pages the map does
+ * not know about, e.g. because the bitmap was missing or written before the
+ * file grew, are assumed to have space until they are found to be full.
+ */
+public class FreeSpaceMap {
+
+    /** Minimum time between two writes of the bitmap by flushIfDue. */
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final File file;
+    // Bit i is set if page i may have an empty slot
+    private final BitSet hasSpace;
+    // Number of pages the bitmap covers
+    private int trackedPages;
+    private boolean dirty;
+    private long lastFlushMillis;
+
+    /**
+     * Loads the map of a HeapFile, or starts a new one if the bitmap file
+     * does not exist or cannot be read.
+     *
+     * @param file the bitmap file
+     * @param numPages the current number of pages of the HeapFile
+     */
+    public FreeSpaceMap(File file, int numPages) {
+        this.file = file;
+        this.hasSpace = new BitSet();
+        this.trackedPages = 0;
+        if (file.exists()) {
+            try {
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    trackedPages = dis.readInt();
+                    long[] words = new long[dis.readInt()];
+                    for (int i = 0; i < words.length; i++) {
+                        words[i] = dis.readLong();
+                    }
+                    hasSpace.or(BitSet.valueOf(words));
+                } finally {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                // Start over; the map is only a hint
+                hasSpace.clear();
+                trackedPages = 0;
+            }
+        }
+        if (trackedPages < numPages) {
+            hasSpace.set(trackedPages, numPages);
+            trackedPages = numPages;
+            dirty = true;
+        }
+        this.lastFlushMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the first page at or after the given one that may have an
+     *         empty slot, or -1 if there is none
+     */
+    public synchronized int nextPageWithSpace(int fromPage) {
+        return hasSpace.nextSetBit(fromPage);
+    }
+
+    /** Records whether a page has an empty slot. */
+    public synchronized void update(int pageNumber, boolean pageHasSpace) {
+        if (pageNumber >= trackedPages) {
+            trackedPages = pageNumber + 1;
+            dirty = true;
+        }
+        if (hasSpace.get(pageNumber) != pageHasSpace) {
+            hasSpace.set(pageNumber, pageHasSpace);
+            dirty = true;
+        }
+    }
+
+    /** Writes the bitmap if it changed and was last written more than FLUSH_INTERVAL_MILLIS ago. */
+    public void flushIfDue() throws IOException {
+        synchronized (this) {
+            if (!dirty || System.currentTimeMillis() - lastFlushMillis < FLUSH_INTERVAL_MILLIS) {
+                return;
+            }
+        }
+        this.flush();
+    }
+
+    /** Writes the bitmap if it changed since it was last written. */
+    public synchronized void flush() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        // Write a new file and swap it in, so a crash never leaves half a bitmap
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            long[] words = hasSpace.toLongArray();
+            dos.writeInt(trackedPages);
+            dos.writeInt(words.length);
+            for (long word : words) {
+                dos.writeLong(word);
+            }
+        } finally {
+            dos.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("could not replace " + file);
+            }
+        }
+        dirty = false;
+        lastFlushMillis = System.currentTimeMillis();
+    }
+}
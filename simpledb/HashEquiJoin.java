@@ -53,15 +53,61 @@ public class HashEquiJoin extends Operator {
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
+    // Dictionary whose codes key the map, or null; set by open
+    transient private StringDictionary keyDictionary = null;
+    // Codes of keyDictionary plus one by code of translatedDictionary, or
+    // 0 where not known yet
+    transient private StringDictionary translatedDictionary = null;
+    transient private int[] translatedCodes = null;
+
+    /**
+     * Returns the key of a join field in the map. If a join field is
+     * dictionary encoded the key is a code of its dictionary, so keys are
+     * hashed and compared as ints. Codes of another dictionary are
+     * translated through their value once per code; values missing from
+     * the dictionary keep their string as key.
+     */
+    private Object joinKey(Field f) {
+        if (keyDictionary == null) {
+            return f;
+        }
+        int code;
+        if (f instanceof DictionaryField) {
+            DictionaryField encoded = (DictionaryField) f;
+            code = encoded.getDictionary() == keyDictionary ? encoded.getCode() : translate(encoded);
+        } else {
+            code = keyDictionary.lookup(StringField.valueOf(f));
+        }
+        return code >= 0 ? (Object) Integer.valueOf(code) : StringField.valueOf(f);
+    }
+
+    /** @return the code of keyDictionary for the value of f, or -1 if it has none */
+    private int translate(DictionaryField f) {
+        if (f.getDictionary() != translatedDictionary) {
+            translatedDictionary = f.getDictionary();
+            translatedCodes = new int[translatedDictionary.size()];
+        }
+        int code = f.getCode();
+        if (code >= translatedCodes.length) {
+            translatedCodes = Arrays.copyOf(translatedCodes, Math.max(code + 1, translatedCodes.length * 2));
+        }
+        if (translatedCodes[code] == 0) {
+            // Misses are not remembered, as the value may be added later
+            translatedCodes[code] = keyDictionary.lookup(f.getValue()) + 1;
+        }
+        return translatedCodes[code] - 1;
+    }
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
+            Object key = joinKey(t1.getField(pred.getField1()));
+            ArrayList<Tuple> list = map.get(key);
             if (list == null) {
                 list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+                map.put(key, list);
             }
             list.add(t1);
             if (cnt++ == MAP_SIZE)
@@ -75,6 +121,12 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        StringDictionary dictionary1 = child1.getTupleDesc().getDictionary(pred.getField1());
+        StringDictionary dictionary2 = child2.getTupleDesc().getDictionary(pred.getField2());
+        // The outer relation fills the map, so its codes need no translation
+        keyDictionary = dictionary1 != null ? dictionary1 : dictionary2;
+        translatedDictionary = null;
+        translatedCodes = null;
         loadMap();
         super.open();
     }
@@ -141,7 +193,7 @@ public class HashEquiJoin extends Operator {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+            ArrayList<Tuple> l = map.get(joinKey(t2.getField(pred.getField2())));
             if (l == null)
                 continue;
             listIt = l.iterator();
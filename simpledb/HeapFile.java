@@ -1,7 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -9,14 +13,58 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can optionally be memory mapped. Pages are then read from and
+ * written to MappedByteBuffer segments of PAGES_PER_SEGMENT pages instead
+ * of going through read and write system calls, which suits read-mostly
+ * tables. Segments are remapped when the file grows past their end.
+ * <p>
+ * Pages are created through createPage and only used through the TuplePage
+ * interface, so subclasses can store tuples in another page format.
+ * <p>
+ * Runs of consecutive pages can be read with readPages and written with
+ * writePages, each run with a single scattering read or gathering write
+ * into or out of the page buffers.
+ * <p>
+ * A ZoneMap next to the file keeps the range of each int field on every
+ * page, so scans with predicates can skip pages.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages covered by one memory-mapped segment. */
+    public static final int PAGES_PER_SEGMENT = 1024;
+
+    /** Largest number of pages writePages writes with a single gathering write. */
+    public static final int MAX_RUN_PAGES = 64;
+
+    private static final Comparator<Page> PAGE_NUMBER_ORDER = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            return Integer.compare(a.getId().getPageNumber(), b.getId().getPageNumber());
+        }
+    };
+
     private File f;
     private TupleDesc td;
+    // Opened on first use and kept open for the lifetime of this HeapFile
+    private FileChannel channel;
+    // Number of pages in the file; -1 until it is first read from the channel
+    private volatile int numPages;
+    private final boolean memoryMapped;
+    // Mapped segments and the number of pages each currently covers; guarded by this
+    private ArrayList<MappedByteBuffer> segments;
+    private ArrayList<Integer> segmentPages;
+    private final ReadAhead readAhead;
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram writeLatency;
+    // Number of completed page writes, so readers can tell whether pages they read may be stale
+    private final AtomicLong writeCount;
+    // Loaded on the first insert or delete; guarded by this
+    private FreeSpaceMap freeSpaceMap;
+    // Loaded on first use, if the file has int fields; guarded by this
+    private ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,9 +74,71 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether pages are accessed through memory-mapped segments
+     *            of the file rather than read and write calls.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.numPages = -1;
+        this.memoryMapped = memoryMapped;
+        this.segments = new ArrayList<MappedByteBuffer>();
+        this.segmentPages = new ArrayList<Integer>();
+        this.readAhead = new ReadAhead(this);
+        this.readLatency = new LatencyHistogram();
+        this.writeLatency = new LatencyHistogram();
+        this.writeCount = new AtomicLong();
+    }
+
+    /** @return true if this file accesses its pages through memory mappings. */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /** Returns the channel to the backing file, opening it if needed. */
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a view of the mapped segment holding the given page, positioned
+     * at the start of the page. The segment is (re)mapped if it does not
+     * cover the page yet, e.g. because the file grew since it was mapped.
+     * The page must exist in the file.
+     */
+    private synchronized ByteBuffer mappedPage(int pageNumber) throws IOException {
+        int segment = pageNumber / PAGES_PER_SEGMENT;
+        int pageInSegment = pageNumber % PAGES_PER_SEGMENT;
+        while (segments.size() <= segment) {
+            segments.add(null);
+            segmentPages.add(0);
+        }
+        if (segments.get(segment) == null || segmentPages.get(segment) <= pageInSegment) {
+            int firstPage = segment * PAGES_PER_SEGMENT;
+            int pages = Math.min(PAGES_PER_SEGMENT, this.numPages() - firstPage);
+            long position = (long) BufferPool.getPageSize() * firstPage;
+            long size = (long) BufferPool.getPageSize() * pages;
+            segments.set(segment, this.getChannel().map(FileChannel.MapMode.READ_WRITE, position, size));
+            segmentPages.set(segment, pages);
+        }
+        // Each caller gets its own position and limit
+        ByteBuffer view = segments.get(segment).duplicate();
+        view.position(pageInSegment * BufferPool.getPageSize());
+        return view;
     }
 
     /**
@@ -74,35 +184,367 @@ public class HeapFile implements DbFile {
             }
             // Check to see if a new, empty page needs to be added to the heap file
             if (this.numPages() == pid.getPageNumber()) {
-                Page heapPage = new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), new byte[BufferPool.getPageSize()]);
+                Page heapPage = this.createPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), new byte[BufferPool.getPageSize()]);
                 this.writePage(heapPage);
                 return heapPage;
             }
-            RandomAccessFile rad = new RandomAccessFile(f, "rw");
-            int pointer = BufferPool.getPageSize() * pid.getPageNumber();
-             // Go to corresponding page
-            rad.seek(pointer);
-            // Read page data
-            byte[] data = new byte[BufferPool.getPageSize()];
-            rad.read(data);
-            rad.close();
-            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
+            // A sequential scan may already have read this page ahead
+            Page staged = readAhead.take(pid.getPageNumber());
+            if (staged != null) {
+                return staged;
+            }
+            return this.readPageFromDisk(pid);
         } catch (Exception e) {
             e.printStackTrace();
             throw new IllegalArgumentException();
         }
     }
 
+    /**
+     * Reads an existing page from the backing file, bypassing the read-ahead
+     * staging area.
+     */
+    Page readPageFromDisk(PageId pid) throws IOException {
+        long start = System.nanoTime();
+        HeapPageId heapPageId = new HeapPageId(pid.getTableId(), pid.getPageNumber());
+        if (memoryMapped) {
+            // The page decodes straight out of the mapping; no system call or copy
+            ByteBuffer view = this.mappedPage(pid.getPageNumber());
+            view.limit(view.position() + BufferPool.getPageSize());
+            ByteBuffer image = view.slice().asReadOnlyBuffer();
+            readLatency.record(System.nanoTime() - start);
+            return this.createPage(heapPageId, image);
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        this.readImages(pid.getPageNumber(), new ByteBuffer[] { ByteBuffer.wrap(data) });
+        readLatency.record(System.nanoTime() - start);
+        return this.createPage(heapPageId, data);
+    }
+
+    /**
+     * Creates a page of this file from its bytes on disk. An all-zero page
+     * must be an empty page.
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Creates a page of this file on a read-only slice of a mapped segment,
+     * which the page keeps instead of a copy.
+     */
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer image) throws IOException {
+        return new HeapPage(pid, image);
+    }
+
+    /**
+     * Reads count consecutive pages, starting at firstPage, with a single
+     * scattering read from the backing file into the pages' buffers. The
+     * pages must exist.
+     *
+     * @return the pages in page number order
+     */
+    public List<Page> readPages(int firstPage, int count) throws IOException {
+        if (firstPage < 0 || count < 0 || firstPage + count > this.numPages()) {
+            throw new IllegalArgumentException("pages " + firstPage + ".." + (firstPage + count) + " are not in the file");
+        }
+        List<Page> pages = new ArrayList<Page>(count);
+        if (memoryMapped) {
+            for (int i = 0; i < count; i++) {
+                pages.add(this.readPageFromDisk(new HeapPageId(this.getId(), firstPage + i)));
+            }
+            return pages;
+        }
+        long start = System.nanoTime();
+        int pageSize = BufferPool.getPageSize();
+        byte[][] data = new byte[count][];
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = new byte[pageSize];
+            buffers[i] = ByteBuffer.wrap(data[i]);
+        }
+        this.readImages(firstPage, buffers);
+        long elapsedPerPage = (System.nanoTime() - start) / Math.max(count, 1);
+        for (int i = 0; i < count; i++) {
+            pages.add(this.createPage(new HeapPageId(this.getId(), firstPage + i), data[i]));
+            readLatency.record(elapsedPerPage);
+        }
+        return pages;
+    }
+
+    /** @return the map of pages with empty slots, loading it on first use */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpaceMap == null) {
+            freeSpaceMap = new FreeSpaceMap(new File(f.getPath() + ".fsm"), this.numPages());
+        }
+        return freeSpaceMap;
+    }
+
+    /** Records in the free space map whether a page has an empty slot. */
+    void updateFreeSpace(int pageNumber, boolean hasSpace) {
+        this.getFreeSpaceMap().update(pageNumber, hasSpace);
+    }
+
+    /**
+     * @return the zone map of this file, or null if the file has no int
+     *         fields
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null) {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    zoneMap = new ZoneMap(new File(f.getPath() + ".zones"), td);
+                    break;
+                }
+            }
+        }
+        return zoneMap;
+    }
+
+    /** Widens the zone of a page to contain a tuple just inserted on it. */
+    void tupleInserted(int pageNumber, Tuple t) {
+        ZoneMap zones = this.getZoneMap();
+        if (zones != null) {
+            zones.tupleInserted(pageNumber, t);
+        }
+    }
+
+    /** Called after every page write; persists the free space map now and then. */
+    private void pageWritten() throws IOException {
+        FreeSpaceMap map;
+        synchronized (this) {
+            map = freeSpaceMap;
+        }
+        if (map != null) {
+            map.flushIfDue();
+        }
+    }
+
+    /** @return the number of page writes to this file so far */
+    long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /** @return the time taken by page reads from the backing file */
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    /** @return the time taken by page writes to the backing file */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /** @return the read-ahead state of this file, used by sequential scans */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile rad = new RandomAccessFile(f, "rw");
-        // Go to corresponding page location
-        rad.seek(BufferPool.getPageSize() * page.getId().getPageNumber());
-        // Write page data
-        rad.write(page.getPageData());
-        rad.close();
+        this.writePage(page, Collections.<PageId, int[]>emptyMap());
+    }
+
+    private void writePage(Page page, Map<PageId, int[]> zonesAtCapture) throws IOException {
+        long start = System.nanoTime();
+        int pageNumber = page.getId().getPageNumber();
+        ZoneMap zones = this.getZoneMap();
+        ZoneMap.Write zoneWrite = zones == null ? null
+                : zones.beginWrite(pageNumber, Collections.singletonList(page), zonesAtCapture);
+        if (memoryMapped && pageNumber < this.numPages()) {
+            // Existing pages are updated in place through the mapping
+            this.mappedPage(pageNumber).put(page.getPageData());
+        } else {
+            this.writeImages(pageNumber, new ByteBuffer[] { ByteBuffer.wrap(page.getPageData()) });
+            this.pagesWritten(pageNumber, 1);
+        }
+        if (zoneWrite != null) {
+            zoneWrite.finish();
+        }
+        writeLatency.record(System.nanoTime() - start);
+        writeCount.incrementAndGet();
+        // A copy read ahead before this write is stale now
+        readAhead.invalidate(pageNumber);
+        this.pageWritten();
+    }
+
+    /**
+     * Writes consecutive page images, starting at firstPage, with a single
+     * positional write. Used by the BulkLoader to append pages without
+     * going through the BufferPool.
+     *
+     * @param data the images of the pages, a whole number of pages long
+     * @param zones the zones of the pages, or null if the file has no zone map
+     */
+    void writePageImages(int firstPage, ByteBuffer data, int[][] zones) throws IOException {
+        ZoneMap.Write zoneWrite = zones == null ? null : this.getZoneMap().beginWrite(firstPage, zones);
+        this.writeRun(firstPage, new ByteBuffer[] { data });
+        if (zoneWrite != null) {
+            zoneWrite.finish();
+        }
+    }
+
+    /**
+     * Writes the given pages of this file, sorted by page number. Each run
+     * of up to MAX_RUN_PAGES consecutive pages is written with a single
+     * gathering write.
+     */
+    public void writePages(List<? extends Page> pages) throws IOException {
+        this.writePages(pages, Collections.<PageId, int[]>emptyMap());
+    }
+
+    /**
+     * Writes images the BufferPool took of cached pages, like writePages.
+     *
+     * @param zonesAtCapture the zone map's zones of the pages when their
+     *        images were taken; a zone only becomes exact if it has not
+     *        changed since
+     * @see ZoneMap#beginWrite(int, List, Map)
+     */
+    void writePages(List<? extends Page> pages, Map<PageId, int[]> zonesAtCapture) throws IOException {
+        if (memoryMapped) {
+            // Pages are copied into the mapping one by one anyway
+            for (Page page : pages) {
+                this.writePage(page, zonesAtCapture);
+            }
+            return;
+        }
+        List<Page> sorted = new ArrayList<Page>(pages);
+        Collections.sort(sorted, PAGE_NUMBER_ORDER);
+        int runStart = 0;
+        while (runStart < sorted.size()) {
+            int runEnd = runStart + 1;
+            while (runEnd < sorted.size() && runEnd - runStart < MAX_RUN_PAGES
+                    && sorted.get(runEnd).getId().getPageNumber() == sorted.get(runEnd - 1).getId().getPageNumber() + 1) {
+                runEnd++;
+            }
+            int firstPage = sorted.get(runStart).getId().getPageNumber();
+            ZoneMap zones = this.getZoneMap();
+            ZoneMap.Write zoneWrite = zones == null ? null
+                    : zones.beginWrite(firstPage, sorted.subList(runStart, runEnd), zonesAtCapture);
+            ByteBuffer[] buffers = new ByteBuffer[runEnd - runStart];
+            for (int i = runStart; i < runEnd; i++) {
+                buffers[i - runStart] = ByteBuffer.wrap(sorted.get(i).getPageData());
+            }
+            this.writeRun(firstPage, buffers);
+            if (zoneWrite != null) {
+                zoneWrite.finish();
+            }
+            runStart = runEnd;
+        }
+    }
+
+    /** Writes consecutive pages, starting at firstPage, with a single gathering write. */
+    private void writeRun(int firstPage, ByteBuffer[] buffers) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        int count = (int) (remaining / pageSize);
+        long start = System.nanoTime();
+        this.writeImages(firstPage, buffers);
+        this.pagesWritten(firstPage, count);
+        long elapsedPerPage = (System.nanoTime() - start) / Math.max(count, 1);
+        for (int i = 0; i < count; i++) {
+            writeLatency.record(elapsedPerPage);
+            writeCount.incrementAndGet();
+            readAhead.invalidate(firstPage + i);
+        }
+        this.pageWritten();
+    }
+
+    /**
+     * Reads the images of consecutive pages, starting at firstPage, into
+     * the buffers, one page each. A single page is read with a positional
+     * read, several with one scattering read. Parts of pages past the end
+     * of the file are left as they are. Subclasses that store pages in
+     * another way override this, writeImages and storedPages.
+     */
+    protected void readImages(int firstPage, ByteBuffer[] buffers) throws IOException {
+        long position = (long) BufferPool.getPageSize() * firstPage;
+        FileChannel fileChannel = this.getChannel();
+        if (buffers.length == 1) {
+            // Read page data with a positional read on the shared channel
+            ByteBuffer buffer = buffers[0];
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return;
+        }
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        // Scattering reads use the channel position, which positional
+        // reads and writes elsewhere neither use nor change
+        synchronized (fileChannel) {
+            fileChannel.position(position);
+            while (remaining > 0) {
+                long read = fileChannel.read(buffers);
+                if (read < 0) {
+                    break;
+                }
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Writes the images of consecutive pages, starting at firstPage; each
+     * buffer holds a whole number of pages. A single buffer is written with
+     * a positional write, several with one gathering write.
+     */
+    protected void writeImages(int firstPage, ByteBuffer[] buffers) throws IOException {
+        long position = (long) BufferPool.getPageSize() * firstPage;
+        FileChannel fileChannel = this.getChannel();
+        if (buffers.length == 1) {
+            // Write page data with a positional write on the shared channel
+            ByteBuffer buffer = buffers[0];
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer, position + buffer.position());
+            }
+            return;
+        }
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        // Same as readImages: the channel position is only used under its monitor
+        synchronized (fileChannel) {
+            fileChannel.position(position);
+            while (remaining > 0) {
+                remaining -= fileChannel.write(buffers);
+            }
+        }
+    }
+
+    /** @return the number of pages in the backing file */
+    protected int storedPages() throws IOException {
+        return (int) (this.getChannel().size() / BufferPool.getPageSize());
+    }
+
+    /** Forces all writes to this file to disk. */
+    public void force() throws IOException {
+        this.getChannel().force(false);
+        ZoneMap zones;
+        synchronized (this) {
+            zones = zoneMap;
+        }
+        if (zones != null) {
+            zones.force();
+        }
+    }
+
+    /** Grows the cached page count after pages were written, possibly past the end of the file. */
+    private synchronized void pagesWritten(int firstPage, int count) {
+        if (numPages >= 0 && firstPage + count > numPages) {
+            numPages = firstPage + count;
+        }
     }
 
     /**
@@ -110,7 +552,21 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) (f.length() / BufferPool.getPageSize());
+        int pages = numPages;
+        if (pages < 0) {
+            synchronized (this) {
+                if (numPages < 0) {
+                    try {
+                        numPages = this.storedPages();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return (int) (f.length() / BufferPool.getPageSize());
+                    }
+                }
+                pages = numPages;
+            }
+        }
+        return pages;
     }
 
     // see DbFile.java for javadocs
@@ -119,17 +575,32 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
         ArrayList<Page> modifiedPages = new ArrayList<Page>();
-        for (int i = 0; i < this.numPages(); i++) {
+        FreeSpaceMap map = this.getFreeSpaceMap();
+        // Only visit pages the free space map lists as having room
+        for (int i = map.nextPageWithSpace(0); i >= 0 && i < this.numPages(); i = map.nextPageWithSpace(i + 1)) {
             HeapPageId heapPageId = new HeapPageId(this.getId(), i);
-            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-            if (heapPage.getNumEmptySlots() > 0) {
-                heapPage.insertTuple(t);
-                modifiedPages.add(heapPage);
-                return modifiedPages;
+            boolean heldLock = Database.getBufferPool().holdsLock(tid, heapPageId);
+            // Pin the page so it cannot be evicted between the check and the insert
+            TuplePage heapPage = (TuplePage) Database.getBufferPool().pinPage(tid, heapPageId, Permissions.READ_WRITE);
+            try {
+                if (heapPage.hasRoomFor(t)) {
+                    heapPage.insertTuple(t);
+                    modifiedPages.add(heapPage);
+                    return modifiedPages;
+                }
+            } finally {
+                Database.getBufferPool().unpinPage(tid, heapPageId);
+            }
+            // The map was out of date, or the page only has room for smaller
+            // tuples. Nothing was changed on the page, so the lock taken
+            // just to look at it can be released right away
+            map.update(i, heapPage.hasFreeSpace());
+            if (!heldLock) {
+                Database.getBufferPool().releasePage(tid, heapPageId);
             }
         }
         HeapPageId heapPageId = new HeapPageId(this.getId(), this.numPages());
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+        TuplePage heapPage = (TuplePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
         heapPage.insertTuple(t);
         modifiedPages.add(heapPage);
         return modifiedPages;
@@ -143,7 +614,7 @@ public class HeapFile implements DbFile {
         ArrayList<Page> modifiedPages = new ArrayList<Page>();
         RecordId recordId = t.getRecordId();
         PageId pageId = recordId.getPageId();
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        TuplePage heapPage = (TuplePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         heapPage.deleteTuple(t);
         modifiedPages.add(heapPage);
         return modifiedPages;
@@ -155,5 +626,29 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * Returns an iterator over all the tuples of this file that reads its
+     * pages through the given ring.
+     *
+     * @param ring the ring to read through, or null to use the BufferPool as usual
+     * @see BufferPool#newScanRing
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(tid, this, ring);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all the
+     * given predicates, reading its pages through the given ring. Pages
+     * only decode the fields the predicates refer to for tuples that fail
+     * them.
+     *
+     * @param ring the ring to read through, or null to use the BufferPool as usual
+     * @param predicates predicates on the fields of this file
+     */
+    public HeapFileIterator iterator(TransactionId tid, BufferRing ring, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, this, ring, predicates);
+    }
+
 }
 
@@ -1,7 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +19,9 @@ import java.util.ArrayList;
 
 public class HeapFileEncoder {
 
+  /** Number of bytes of input handed to one parsing task by convertParallel. */
+  public static final int PARALLEL_CHUNK_BYTES = 4 << 20;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -223,4 +232,279 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Same as {@link #convertParallel(File, File, int, int, Type[], char, ForkJoinPool)}
+   * on the common fork-join pool.
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convertParallel(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, ForkJoinPool.commonPool());
+  }
+
+   /** Convert the specified input text file into a binary page file, like
+    * {@link #convert(File, File, int, int, Type[], char)}, using several
+    * threads. <br>
+    *
+    * The input is read in chunks of about PARALLEL_CHUNK_BYTES, cut at line
+    * boundaries. Each chunk is parsed into encoded records by a task on the
+    * given pool while the calling thread reads the next chunks; the calling
+    * thread then packs the records into pages and writes them in input
+    * order. At most a few chunks per thread are in memory at once, so files
+    * much larger than memory can be converted. The output file is the same
+    * as the one convert writes for well-formed input.
+    *
+    * @param pool the pool the chunks are parsed on
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, ForkJoinPool pool)
+      throws IOException {
+      PageWriter writer = new PageWriter(outFile, npagebytes, numFields, typeAr);
+      ArrayDeque<ForkJoinTask<ParsedChunk>> inFlight = new ArrayDeque<ForkJoinTask<ParsedChunk>>();
+      int maxInFlight = 2 * pool.getParallelism() + 1;
+      InputStream is = new FileInputStream(inFile);
+      try {
+          byte[] carry = new byte[0];
+          while (true) {
+              byte[] chunk = new byte[carry.length + PARALLEL_CHUNK_BYTES];
+              System.arraycopy(carry, 0, chunk, 0, carry.length);
+              int length = carry.length;
+              int read;
+              while (length < chunk.length && (read = is.read(chunk, length, chunk.length - length)) > 0) {
+                  length += read;
+              }
+              boolean done = length < chunk.length;
+              // Cut after the last complete line; the rest starts the next chunk
+              int end = length;
+              if (!done) {
+                  while (end > 0 && chunk[end - 1] != '\n') {
+                      end--;
+                  }
+                  if (end == 0) {
+                      // A line longer than the chunk; keep growing it
+                      carry = chunk;
+                      continue;
+                  }
+              }
+              carry = new byte[length - end];
+              System.arraycopy(chunk, end, carry, 0, carry.length);
+              if (inFlight.size() == maxInFlight) {
+                  writer.write(join(inFlight.poll()));
+              }
+              inFlight.add(pool.submit(new ChunkParser(chunk, end, numFields, typeAr, fieldSeparator, writer.nrecbytes)));
+              if (done) {
+                  break;
+              }
+          }
+          while (!inFlight.isEmpty()) {
+              writer.write(join(inFlight.poll()));
+          }
+          writer.close();
+      } finally {
+          for (ForkJoinTask<ParsedChunk> task : inFlight) {
+              task.cancel(true);
+          }
+          is.close();
+          writer.closeQuietly();
+      }
+  }
+
+  private static ParsedChunk join(ForkJoinTask<ParsedChunk> task) throws IOException {
+      try {
+          return task.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException("interrupted while converting");
+      } catch (ExecutionException e) {
+          // The pool may wrap the parser's exception more than once
+          for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+              if (cause instanceof IOException) {
+                  throw (IOException) cause;
+              }
+          }
+          throw new IOException(e.getCause());
+      }
+  }
+
+  /** Encoded records of one chunk of input, back to back. */
+  private static class ParsedChunk {
+      final byte[] records;
+      final int count;
+
+      ParsedChunk(byte[] records, int count) {
+          this.records = records;
+          this.count = count;
+      }
+  }
+
+  /** Parses the lines of one chunk into records in the page format. */
+  private static class ChunkParser implements Callable<ParsedChunk> {
+      private final byte[] input;
+      private final int length;
+      private final int numFields;
+      private final Type[] typeAr;
+      private final char fieldSeparator;
+      private final int nrecbytes;
+
+      ChunkParser(byte[] input, int length, int numFields, Type[] typeAr, char fieldSeparator, int nrecbytes) {
+          this.input = input;
+          this.length = length;
+          this.numFields = numFields;
+          this.typeAr = typeAr;
+          this.fieldSeparator = fieldSeparator;
+          this.nrecbytes = nrecbytes;
+      }
+
+      public ParsedChunk call() throws IOException {
+          ByteArrayOutputStream recordsBAOS = new ByteArrayOutputStream(length);
+          DataOutputStream recordStream = new DataOutputStream(recordsBAOS);
+          int count = 0;
+          int lineStart = 0;
+          while (lineStart < length) {
+              int lineEnd = lineStart;
+              while (lineEnd < length && input[lineEnd] != '\n') {
+                  lineEnd++;
+              }
+              int contentEnd = lineEnd;
+              // Ignore Windows/Notepad special line endings
+              while (contentEnd > lineStart && input[contentEnd - 1] == '\r') {
+                  contentEnd--;
+              }
+              if (contentEnd > lineStart) {
+                  this.parseLine(lineStart, contentEnd, recordStream);
+                  count++;
+              }
+              lineStart = lineEnd + 1;
+          }
+          recordStream.flush();
+          return new ParsedChunk(recordsBAOS.toByteArray(), count);
+      }
+
+      private void parseLine(int start, int end, DataOutputStream recordStream) throws IOException {
+          int fieldStart = start;
+          for (int fieldNo = 0; fieldNo < numFields; fieldNo++) {
+              int fieldEnd = fieldStart;
+              while (fieldEnd < end && input[fieldEnd] != fieldSeparator) {
+                  fieldEnd++;
+              }
+              if (fieldEnd == end && fieldNo < numFields - 1) {
+                  throw new IOException("BAD LINE : " + new String(input, start, end - start, "ISO-8859-1"));
+              }
+              // trim
+              int from = fieldStart;
+              int to = fieldEnd;
+              while (from < to && input[from] <= ' ') {
+                  from++;
+              }
+              while (to > from && input[to - 1] <= ' ') {
+                  to--;
+              }
+              if (typeAr[fieldNo] == Type.INT_TYPE) {
+                  recordStream.writeInt(this.parseInt(from, to, start, end));
+              } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+                  int len = Math.min(to - from, Type.STRING_LEN);
+                  recordStream.writeInt(len);
+                  recordStream.write(input, from, len);
+                  for (int i = len; i < Type.STRING_LEN; i++) {
+                      recordStream.write(0);
+                  }
+              }
+              fieldStart = fieldEnd + 1;
+          }
+          if (fieldStart <= end) {
+              throw new IOException("BAD LINE : " + new String(input, start, end - start, "ISO-8859-1"));
+          }
+      }
+
+      /** Parses a decimal int from the bytes in [from, to), without creating a String. */
+      private int parseInt(int from, int to, int lineStart, int lineEnd) throws IOException {
+          boolean negative = from < to && input[from] == '-';
+          int i = negative || (from < to && input[from] == '+') ? from + 1 : from;
+          if (i == to) {
+              throw new IOException("BAD LINE : " + new String(input, lineStart, lineEnd - lineStart, "ISO-8859-1"));
+          }
+          // Accumulate negatively so Integer.MIN_VALUE fits
+          long value = 0;
+          for (; i < to; i++) {
+              int digit = input[i] - '0';
+              if (digit < 0 || digit > 9 || (value = value * 10 - digit) < Integer.MIN_VALUE) {
+                  throw new IOException("BAD LINE : " + new String(input, lineStart, lineEnd - lineStart, "ISO-8859-1"));
+              }
+          }
+          if (!negative && value == Integer.MIN_VALUE) {
+              throw new IOException("BAD LINE : " + new String(input, lineStart, lineEnd - lineStart, "ISO-8859-1"));
+          }
+          return (int) (negative ? value : -value);
+      }
+  }
+
+  /** Packs encoded records into pages and writes them to the output file. */
+  private static class PageWriter {
+      final int nrecbytes;
+      private final int npagebytes;
+      private final int nrecords;
+      private final int nheaderbytes;
+      private final OutputStream os;
+      private final byte[] page;
+      private int recordcount;
+      private int npages;
+      private boolean closed;
+
+      PageWriter(File outFile, int npagebytes, int numFields, Type[] typeAr) throws IOException {
+          int recbytes = 0;
+          for (int i = 0; i < numFields; i++) {
+              recbytes += typeAr[i].getLen();
+          }
+          this.nrecbytes = recbytes;
+          this.npagebytes = npagebytes;
+          this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+          this.nheaderbytes = (nrecords + 7) / 8;
+          this.os = new BufferedOutputStream(new FileOutputStream(outFile), 64 * npagebytes);
+          this.page = new byte[npagebytes];
+      }
+
+      void write(ParsedChunk chunk) throws IOException {
+          int next = 0;
+          while (next < chunk.count) {
+              // Records are back to back in both the chunk and the page
+              int n = Math.min(chunk.count - next, nrecords - recordcount);
+              System.arraycopy(chunk.records, next * nrecbytes, page, nheaderbytes + recordcount * nrecbytes, n * nrecbytes);
+              for (int i = recordcount; i < recordcount + n; i++) {
+                  page[i / 8] |= (byte) (1 << (i % 8));
+              }
+              recordcount += n;
+              next += n;
+              if (recordcount == nrecords) {
+                  this.writePage();
+              }
+          }
+      }
+
+      private void writePage() throws IOException {
+          os.write(page);
+          Arrays.fill(page, (byte) 0);
+          recordcount = 0;
+          npages++;
+      }
+
+      /** Writes the last, partly filled page, or an empty page if there were no records. */
+      void close() throws IOException {
+          if (recordcount > 0 || npages == 0) {
+              this.writePage();
+          }
+          closed = true;
+          os.close();
+      }
+
+      void closeQuietly() {
+          if (!closed) {
+              try {
+                  os.close();
+              } catch (IOException e) {
+                  // already failing
+              }
+          }
+      }
+  }
 }
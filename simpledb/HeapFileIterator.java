@@ -7,12 +7,41 @@ public class HeapFileIterator implements DbFileIterator {
 	private TransactionId tid;
 	private HeapFile heapFile;
 	private Iterator<Tuple> tupleIterator;
+	// The pinned page has not been iterated yet
+	private boolean unreadPage;
 	// Keeps track of current page number
 	private int pageNumber;
+	// Pages before this one have been handed to read-ahead
+	private int prefetchedUpTo;
+	// Frames the scan recycles, or null to read through the pool as usual
+	private BufferRing ring;
+	// The page being iterated; it stays pinned until the scan moves on
+	private HeapPageId pinnedPageId;
+	private TuplePage pinnedPage;
+	// Only tuples satisfying all of these are returned
+	private List<Predicate> predicates;
+	// Zones of the file's pages, used to skip pages the predicates rule out; null if there are none
+	private ZoneMap zoneMap;
+	private int pagesSkipped;
 
 	public HeapFileIterator(TransactionId tid, HeapFile heapFile) {
+		this(tid, heapFile, null);
+	}
+
+	public HeapFileIterator(TransactionId tid, HeapFile heapFile, BufferRing ring) {
+		this(tid, heapFile, ring, Collections.<Predicate>emptyList());
+	}
+
+	/**
+	 * @param predicates only tuples that satisfy all of them are returned;
+	 *        their field numbers refer to the fields of the file
+	 */
+	public HeapFileIterator(TransactionId tid, HeapFile heapFile, BufferRing ring, List<Predicate> predicates) {
 		this.tid = tid;
 		this.heapFile = heapFile;
+		this.ring = ring;
+		this.predicates = new ArrayList<Predicate>(predicates);
+		this.zoneMap = predicates.isEmpty() ? null : heapFile.getZoneMap();
 	}
 
 	/**
@@ -22,10 +51,48 @@ public class HeapFileIterator implements DbFileIterator {
     public void open()
         throws DbException, TransactionAbortedException {
         // Open at first page
-        pageNumber = 0;
-    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(heapFile.getId(), pageNumber), Permissions.READ_ONLY);
-    	// Get tuple iterator for the first page
-    	tupleIterator = page.iterator();
+        pageNumber = this.nextPage(0);
+        prefetchedUpTo = 0;
+    	tupleIterator = Collections.<Tuple>emptyList().iterator();
+    	if (pageNumber > 0 && pageNumber >= heapFile.numPages()) {
+    		// The predicates rule out every page
+    		unreadPage = false;
+    		return;
+    	}
+    	// Pin the first page; its tuples are looked at on the first call
+    	this.pinPage(pageNumber);
+    	unreadPage = true;
+    }
+
+    /**
+     * @return the first page at or after the given one that the zone map
+     *         does not rule out, or the number of pages if there is none.
+     *         Skipped pages are not read, but they are locked like the
+     *         pages the scan reads, so no other transaction can add
+     *         matching tuples to them before this one completes.
+     */
+    private int nextPage(int fromPage) throws TransactionAbortedException {
+    	if (zoneMap == null) {
+    		return fromPage;
+    	}
+    	int numPages = heapFile.numPages();
+    	int page = fromPage;
+    	while (page < numPages && !zoneMap.mayMatch(page, predicates)) {
+    		HeapPageId pageId = new HeapPageId(heapFile.getId(), page);
+    		Database.getBufferPool().getLockManager().acquireLock(tid, pageId, Permissions.READ_ONLY);
+    		// A transaction holding the page until now may have widened its zone
+    		if (zoneMap.mayMatch(page, predicates)) {
+    			break;
+    		}
+    		page++;
+    	}
+    	pagesSkipped += page - fromPage;
+    	return page;
+    }
+
+    /** @return the number of pages the zone map let the scan skip */
+    public int getPagesSkipped() {
+    	return pagesSkipped;
     }
 
     /** @return true if there are more tuples available, false if no more tuples or iterator isn't open. */
@@ -35,20 +102,142 @@ public class HeapFileIterator implements DbFileIterator {
         if (tupleIterator == null) {
         	return false;
         }
+        if (unreadPage) {
+        	tupleIterator = this.tuplesOf(pinnedPage);
+        	unreadPage = false;
+        }
         // Look for next page if there are no more tuples on the current page
         while (!tupleIterator.hasNext()) {
-        	pageNumber++;
+        	pageNumber = this.nextPage(pageNumber + 1);
         	// Check if reached end of file
-        	if (heapFile.numPages() == pageNumber) {
+        	if (pageNumber >= heapFile.numPages()) {
+        		pageNumber = heapFile.numPages();
+        		this.unpinPage();
         		return false;
         	}
-        	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(heapFile.getId(), pageNumber), Permissions.READ_ONLY);
+        	this.readAhead();
         	// Store tuple iterator for new page
-        	tupleIterator = page.iterator();
+        	tupleIterator = this.tuplesOf(this.pinPage(pageNumber));
         }
         return true;
 	}
 
+    /**
+     * Returns the values of an int field of the tuples on the next page,
+     * skipping the tuples that fail the predicates. PaxPages read the values
+     * straight from the field's run. Must not be mixed with next() on the
+     * same scan.
+     *
+     * @return the values, or null once the last page was read
+     */
+    public int[] nextIntRun(int fieldIndex) throws DbException, TransactionAbortedException {
+    	if (tupleIterator == null || !unreadPage) {
+    		return null;
+    	}
+    	int[] values;
+    	if (pinnedPage instanceof HeapPage) {
+    		HeapPage page = (HeapPage) pinnedPage;
+    		values = page.intValues(fieldIndex, page.matchingSlots(predicates));
+    	} else {
+    		List<Integer> list = new ArrayList<Integer>();
+    		Iterator<Tuple> tuples = this.tuplesOf(pinnedPage);
+    		while (tuples.hasNext()) {
+    			list.add(((IntField) tuples.next().getField(fieldIndex)).getValue());
+    		}
+    		values = new int[list.size()];
+    		for (int i = 0; i < values.length; i++) {
+    			values[i] = list.get(i);
+    		}
+    	}
+    	pageNumber = this.nextPage(pageNumber + 1);
+    	if (pageNumber >= heapFile.numPages()) {
+    		pageNumber = heapFile.numPages();
+    		this.unpinPage();
+    		unreadPage = false;
+    	} else {
+    		this.readAhead();
+    		this.pinPage(pageNumber);
+    	}
+    	return values;
+    }
+
+    /** Returns an iterator over the tuples of the page that satisfy the predicates. */
+    private Iterator<Tuple> tuplesOf(TuplePage page) {
+    	if (predicates.isEmpty()) {
+    		return page.iterator();
+    	}
+    	if (page instanceof HeapPage) {
+    		// Only the fields the predicates need are decoded
+    		return ((HeapPage) page).iterator(((HeapPage) page).matchingSlots(predicates));
+    	}
+    	List<Tuple> matching = new ArrayList<Tuple>();
+    	Iterator<Tuple> tuples = page.iterator();
+    	while (tuples.hasNext()) {
+    		Tuple t = tuples.next();
+    		boolean satisfied = true;
+    		for (Predicate p : predicates) {
+    			satisfied = satisfied && p.filter(t);
+    		}
+    		if (satisfied) {
+    			matching.add(t);
+    		}
+    	}
+    	return matching.iterator();
+    }
+
+    /**
+     * Pins the given page in place of the current one.
+     */
+    private TuplePage pinPage(int pageNumber) throws DbException, TransactionAbortedException {
+    	this.unpinPage();
+    	HeapPageId pageId = new HeapPageId(heapFile.getId(), pageNumber);
+    	TuplePage page = (TuplePage) Database.getBufferPool().pinPage(tid, pageId, Permissions.READ_ONLY, ring);
+    	pinnedPageId = pageId;
+    	pinnedPage = page;
+    	return page;
+    }
+
+    private void unpinPage() {
+    	if (pinnedPageId != null) {
+    		Database.getBufferPool().unpinPage(tid, pinnedPageId);
+    		pinnedPageId = null;
+    		pinnedPage = null;
+    	}
+    }
+
+    /**
+     * Reads the next pages of the file in the background. The scan counts
+     * as sequential once it moves past its first page, so short scans that
+     * stop on the first page never trigger read-ahead. A new window is
+     * issued when the scan gets within half a window of the pages already
+     * read ahead. Pages the zone map rules out are left out of the window;
+     * this is only a guess, as nextPage decides which pages the scan skips
+     * once it holds their locks.
+     */
+    private void readAhead() {
+    	int window = ReadAhead.getWindow();
+    	// The operating system already reads ahead on memory-mapped files
+    	if (window == 0 || heapFile.isMemoryMapped()) {
+    		return;
+    	}
+    	if (pageNumber + window / 2 < prefetchedUpTo) {
+    		return;
+    	}
+    	int firstPage = Math.max(prefetchedUpTo, pageNumber + 1);
+    	prefetchedUpTo = pageNumber + 1 + window;
+    	if (zoneMap == null) {
+    		heapFile.getReadAhead().prefetch(firstPage, prefetchedUpTo - firstPage);
+    		return;
+    	}
+    	List<Integer> pageNumbers = new ArrayList<Integer>();
+    	for (int page = firstPage; page < prefetchedUpTo; page++) {
+    		if (zoneMap.mayMatch(page, predicates)) {
+    			pageNumbers.add(page);
+    		}
+    	}
+    	heapFile.getReadAhead().prefetch(pageNumbers);
+    }
+
     /**
      * Gets the next tuple from the operator (typically implementing by reading
      * from a child operator or an access method).
@@ -77,6 +266,8 @@ public class HeapFileIterator implements DbFileIterator {
      * Closes the iterator.
      */
     public void close() {
+    	this.unpinPage();
     	tupleIterator = null;
+    	unreadPage = false;
     }
 }
\ No newline at end of file
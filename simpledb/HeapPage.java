@@ -2,24 +2,40 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily. The page keeps the bytes it was read from;
+ * a Tuple object is only created when a slot is visited, and its fields are
+ * only parsed when they are requested. Slots that were never materialized
+ * are copied back verbatim by getPageData.
+ * <p>
+ * When the BufferPool uses off-heap frames, the page image and the before
+ * image are copied into frames of the PageArena instead of being kept in
+ * byte arrays on the heap; only the header and the materialized tuples stay
+ * on the heap.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    // Materialized tuples; null for empty slots and for used slots that
+    // have not been visited yet (their contents are still in data)
     final Tuple tuples[];
     final int numSlots;
+    // The page image this page was created from; never modified by this page
+    final ByteBuffer data;
 
-    byte[] oldData;
+    // The before image, replaced or overwritten by setBeforeImage
+    ByteBuffer oldData;
     private final Byte oldDataLock=new Byte((byte)0);
     private boolean isDirty;
     private TransactionId tid;
@@ -41,25 +57,40 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage on a page image without copying it, such as a
+     * read-only slice of a memory-mapped file, which holds the page from
+     * position 0. The image may only change through writes of this page's
+     * own data, which leave the slots the page has not decoded as they are.
+     */
+    HeapPage(HeapPageId id, ByteBuffer image) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (BufferPool.isOffHeapFrames()) {
+            // One frame for the page image, one for the before image
+            ByteBuffer[] frames = PageArena.getInstance().allocate(this, 2);
+            ByteBuffer view = image.duplicate();
+            view.clear();
+            frames[0].put(view);
+            frames[0].clear();
+            this.data = frames[0];
+            this.oldData = frames[1];
+        } else {
+            // The page takes ownership of the image; tuples are decoded from it on demand
+            this.data = image;
+        }
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        ByteBuffer headerView = this.data.duplicate();
+        headerView.clear();
+        headerView.get(header);
+
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -89,12 +120,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,getBeforeImageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -103,10 +129,30 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a copy of the page image set by setBeforeImage */
+    byte[] getBeforeImageData() {
+        byte[] oldDataRef = new byte[BufferPool.getPageSize()];
+        synchronized(oldDataLock)
+        {
+            ByteBuffer view = oldData.duplicate();
+            view.clear();
+            view.get(oldDataRef);
+        }
+        return oldDataRef;
+    }
+
     public void setBeforeImage() {
+        byte[] pageData = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            if (oldData != null && oldData.isDirect()) {
+                // Overwrite the off-heap frame in place
+                oldData.clear();
+                oldData.put(pageData);
+                oldData.clear();
+            } else {
+                oldData = ByteBuffer.wrap(pageData);
+            }
         }
     }
 
@@ -119,36 +165,44 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of a field of the tuple in the given slot within the
+     * page image.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    int fieldOffset(int slotId, int fieldIndex) {
+        return header.length + slotId * td.getSize() + td.getFieldOffset(fieldIndex);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Parses one field of the tuple in the given slot from the page image.
+     * Called by lazily decoded tuples.
+     */
+    Field decodeField(int slotId, int fieldIndex) {
+        return td.parseField(fieldIndex, data, fieldOffset(slotId, fieldIndex));
+    }
+
+    /**
+     * Writes one field of a tuple of this page; a dictionary encoded field
+     * is written as its code.
+     */
+    void writeField(int fieldIndex, Field f, DataOutputStream dos) throws IOException {
+        if (td.getDictionary(fieldIndex) != null) {
+            dos.writeInt(((DictionaryField) f).getCode());
+        } else {
+            f.serialize(dos);
         }
+    }
 
+    /**
+     * Returns the tuple in the given slot, creating a lazily decoded tuple
+     * the first time the slot is visited.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, this, slotId);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
         return t;
     }
 
@@ -178,6 +232,10 @@ public class HeapPage implements Page {
             }
         }
 
+        // unvisited slots are copied from the page image through this view
+        ByteBuffer image = data.duplicate();
+        byte[] slot = data.hasArray() ? null : new byte[td.getSize()];
+
         // create the tuples
         for (int i=0; i<tuples.length; i++) {
 
@@ -194,11 +252,27 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never visited: copy it as it was read
+            if (tuples[i] == null) {
+                try {
+                    if (slot == null) {
+                        dos.write(data.array(), fieldOffset(i, 0), td.getSize());
+                    } else {
+                        image.position(fieldOffset(i, 0));
+                        image.get(slot);
+                        dos.write(slot);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    writeField(j, f, dos);
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -256,6 +330,7 @@ public class HeapPage implements Page {
         }
         tuples[tupleNumber] = null;
         this.markSlotUsed(tupleNumber, false);
+        this.updateFreeSpaceMap();
     }
 
     /**
@@ -271,14 +346,62 @@ public class HeapPage implements Page {
         if (this.getNumEmptySlots() == 0 || !t.getTupleDesc().equals(this.td)) {
             throw new DbException("The page is full or the given tuple descriptor is a mismatch.");
         }
+        Tuple stored = this.encodeTuple(t);
         for (int i = 0; i < this.numSlots; i++) {
             if (!isSlotUsed(i)) {
                 t.setRecordId(new RecordId(this.pid, i));
-                tuples[i] = t;
+                stored.setRecordId(t.getRecordId());
+                tuples[i] = stored;
                 this.markSlotUsed(i, true);
                 break;
             }
         }
+        this.updateFreeSpaceMap();
+        this.updateZoneMap(t);
+    }
+
+    /**
+     * Returns the tuple to keep in a slot for a tuple being inserted. If
+     * some fields are dictionary encoded, that is a copy holding codes of
+     * this table's dictionaries, so the caller's tuple keeps its fields;
+     * otherwise the tuple itself.
+     */
+    private Tuple encodeTuple(Tuple t) throws DbException {
+        Tuple stored = t;
+        for (int j = 0; j < td.numFields(); j++) {
+            StringDictionary dictionary = td.getDictionary(j);
+            if (dictionary == null) {
+                continue;
+            }
+            if (stored == t) {
+                stored = new Tuple(td);
+                for (int k = 0; k < td.numFields(); k++) {
+                    stored.setField(k, t.getField(k));
+                }
+            }
+            try {
+                stored.setField(j, dictionary.encode(t.getField(j)));
+            } catch (IOException e) {
+                throw new DbException("could not add a value to the dictionary " + dictionary.getFile() + ": " + e);
+            }
+        }
+        return stored;
+    }
+
+    /** Tells the free space map of the file whether this page has an empty slot. */
+    void updateFreeSpaceMap() {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).updateFreeSpace(pid.getPageNumber(), this.hasFreeSpace());
+        }
+    }
+
+    /** Widens the zone of this page in the zone map of the file to contain a tuple just inserted. */
+    void updateZoneMap(Tuple t) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).tupleInserted(pid.getPageNumber(), t);
+        }
     }
 
     /**
@@ -323,6 +446,16 @@ public class HeapPage implements Page {
         return numberOfEmptySlots;
     }
 
+    /** @return true if the page has an empty slot; all tuples take the same space */
+    public boolean hasRoomFor(Tuple t) {
+        return this.getNumEmptySlots() > 0;
+    }
+
+    /** @return true if the page has an empty slot */
+    public boolean hasFreeSpace() {
+        return this.getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -355,13 +488,83 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> existingTuples = new ArrayList<Tuple>();
+        // Remember which slots are in use now, like a snapshot would, but
+        // only create the tuples as they are reached
+        return this.iterator(this.matchingSlots(Collections.<Predicate>emptyList()));
+    }
+
+    /**
+     * Returns the used slots whose tuples satisfy all the given predicates.
+     * Only the fields the predicates refer to are decoded.
+     *
+     * @return the slot numbers in ascending order
+     */
+    int[] matchingSlots(List<Predicate> predicates) {
+        int[] slots = new int[numSlots - getNumEmptySlots()];
+        int count = 0;
         for (int i = 0; i < tuples.length; i++) {
-            if (isSlotUsed(i)) {
-                existingTuples.add(tuples[i]);
+            if (isSlotUsed(i) && this.satisfies(i, predicates)) {
+                slots[count++] = i;
+            }
+        }
+        return count == slots.length ? slots : Arrays.copyOf(slots, count);
+    }
+
+    private boolean satisfies(int slotId, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            StringDictionary dictionary = td.getDictionary(p.getField());
+            if (tuples[slotId] == null && dictionary != null && p.comparesCodes()) {
+                // Compare the code in the page image without decoding it
+                if (!p.matchesCode(dictionary, data.getInt(fieldOffset(slotId, p.getField())))) {
+                    return false;
+                }
+                continue;
+            }
+            Field f = tuples[slotId] != null ? tuples[slotId].getField(p.getField()) : decodeField(slotId, p.getField());
+            if (!p.filter(f)) {
+                return false;
             }
         }
-        return existingTuples.iterator();
+        return true;
+    }
+
+    /**
+     * @return the values of an int field of the tuples in the given slots,
+     *         without creating the tuples
+     */
+    int[] intValues(int fieldIndex, int[] slots) {
+        int[] values = new int[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            Tuple t = tuples[slots[i]];
+            Field f = t != null ? t.getField(fieldIndex) : decodeField(slots[i], fieldIndex);
+            values[i] = ((IntField) f).getValue();
+        }
+        return values;
+    }
+
+    /**
+     * @return an iterator over the tuples in the given slots, which must be
+     *         in use; tuples are created as they are reached
+     */
+    Iterator<Tuple> iterator(final int[] usedSlots) {
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < usedSlots.length;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getTuple(usedSlots[next++]);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
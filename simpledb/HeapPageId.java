@@ -54,7 +54,8 @@ public class HeapPageId implements PageId {
      */
     public boolean equals(Object o) {
         // some code goes here
-        if (o == null || !(o instanceof PageId)) {
+        // Pages of other kinds of files can have the same numbers
+        if (!(o instanceof HeapPageId)) {
             return false;
         }
         HeapPageId otherHeapPageId = (HeapPageId) o;
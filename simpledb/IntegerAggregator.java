@@ -61,35 +61,66 @@ public class IntegerAggregator implements Aggregator {
             fieldNameOfGroupBy = tup.getTupleDesc().getFieldName(gbfield);
         }
         IntField fieldOfAggregate = (IntField) tup.getField(afield);
+        this.mergeIntoGroup(fieldOfAggregate.getValue(), 1);
+    }
+
+    /**
+     * Merges a run of aggregate field values into the aggregate without
+     * creating tuples. Only supported without grouping.
+     *
+     * @param values the values of the aggregate field of some tuples
+     */
+    public void mergeIntRun(int[] values) {
+        if (gbfield != NO_GROUPING) {
+            throw new IllegalStateException("runs of values carry no group");
+        }
+        if (values.length == 0) {
+            return;
+        }
+        // One pass over the run, then a single update of the group
+        int runValue = values[0];
+        for (int i = 1; i < values.length; i++) {
+            runValue = this.combine(values[i], runValue);
+        }
+        fieldOfGroupBy = new IntField(-1);
+        fieldNameOfGroupBy = null;
+        this.mergeIntoGroup(runValue, values.length);
+    }
+
+    /**
+     * Merges the aggregate of count values into the group in
+     * fieldOfGroupBy.
+     */
+    private void mergeIntoGroup(int valueOfAggregate, int count) {
         // Update existing entries
         if (groupByCount.containsKey(fieldOfGroupBy)) {
-            groupByCount.put(fieldOfGroupBy, groupByCount.get(fieldOfGroupBy) + 1);
+            groupByCount.put(fieldOfGroupBy, groupByCount.get(fieldOfGroupBy) + count);
             int valueOfGroupBy = groupByValue.get(fieldOfGroupBy);
-            int valueOfAggregate = fieldOfAggregate.getValue();
-            switch (what) {
-                case MIN:
-                    groupByValue.put(fieldOfGroupBy, Math.min(valueOfAggregate, valueOfGroupBy));
-                    break;
-                case MAX:
-                    groupByValue.put(fieldOfGroupBy, Math.max(valueOfAggregate, valueOfGroupBy));
-                    break;
-                case SUM:
-                    groupByValue.put(fieldOfGroupBy, valueOfAggregate + valueOfGroupBy);
-                    break;
-                case AVG:
-                    // Sum the value to then calculate the average
-                    groupByValue.put(fieldOfGroupBy, valueOfAggregate + valueOfGroupBy);
-                    break;
-                case COUNT:
-                    // Count has been updated
-                    break;
-                default:
-                    break;
-            }            
+            groupByValue.put(fieldOfGroupBy, this.combine(valueOfAggregate, valueOfGroupBy));
         } else {
             // Store new entries
-            groupByValue.put(fieldOfGroupBy, fieldOfAggregate.getValue());
-            groupByCount.put(fieldOfGroupBy, 1);
+            groupByValue.put(fieldOfGroupBy, valueOfAggregate);
+            groupByCount.put(fieldOfGroupBy, count);
+        }
+    }
+
+    /** Combines a new value with the value of a group so far. */
+    private int combine(int valueOfAggregate, int valueOfGroupBy) {
+        switch (what) {
+            case MIN:
+                return Math.min(valueOfAggregate, valueOfGroupBy);
+            case MAX:
+                return Math.max(valueOfAggregate, valueOfGroupBy);
+            case SUM:
+                return valueOfAggregate + valueOfGroupBy;
+            case AVG:
+                // Sum the value to then calculate the average
+                return valueOfAggregate + valueOfGroupBy;
+            case COUNT:
+                // Count is kept in groupByCount
+                return valueOfGroupBy;
+            default:
+                return valueOfGroupBy;
         }
     }
 
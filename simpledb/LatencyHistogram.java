@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations in power-of-two buckets of nanoseconds.
+ * Recording is lock-free, so it can be called on every page read or write;
+ * percentiles are reported as the upper bound of the bucket they fall into,
+ * i.e. they are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    // Bucket i counts durations d with 2^(i-1) <= d < 2^i; bucket 0 counts d == 0
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder totalNanos;
+
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        count = new LongAdder();
+        totalNanos = new LongAdder();
+    }
+
+    /** Records a duration; negative durations (clock adjustments) count as 0. */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    /** @return the number of recorded durations */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return the sum of all recorded durations */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /** @return the mean recorded duration, or 0 if nothing was recorded */
+    public long getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    /**
+     * @param percentile a fraction between 0 and 1, e.g. 0.99
+     * @return an upper bound of the given percentile, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+        long[] counts = this.getBucketCounts();
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** @return the count of each bucket; bucket i holds durations below 2^i nanoseconds */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+}
@@ -1,159 +1,417 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager grants shared (READ_ONLY) and exclusive (READ_WRITE) page
+ * locks to transactions. Requests that cannot be granted immediately are
+ * queued per page in FIFO order and the requesting thread parks until the
+ * lock is handed to it by releaseLock or releaseLocksOfTransaction, until
+ * a deadlock is detected, or until the lock-wait timeout expires. Lock
+ * upgrades are queued ahead of other waiters.
+ */
 public class LockManager {
 
+	/** Lock-wait timeout meaning "wait until the lock is granted". */
+	public static final long NO_TIMEOUT = 0;
+
+	/** Number of pages whose lock waits are kept per page. */
+	public static final int MAX_WAIT_STATS_PAGES = 1024;
+
+	/** A queued request for a lock on a page. */
+	private static class LockRequest {
+		final TransactionId tid;
+		final Permissions perm;
+		final Condition grantedCondition;
+		boolean granted;
+
+		LockRequest(TransactionId tid, Permissions perm, Condition grantedCondition) {
+			this.tid = tid;
+			this.perm = perm;
+			this.grantedCondition = grantedCondition;
+			this.granted = false;
+		}
+	}
+
+	/** Holders and waiters of the lock on a single page. */
+	private static class PageLock {
+		final Set<TransactionId> holders = new HashSet<TransactionId>();
+		// READ_ONLY or READ_WRITE while the lock is held, null otherwise
+		Permissions mode;
+		final LinkedList<LockRequest> waiters = new LinkedList<LockRequest>();
+	}
+
+	/** Accumulated lock-wait time of a page. */
+	private static class WaitStats {
+		long waits;
+		long waitNanos;
+	}
+
+	// Guards all state below; waiters park on per-request conditions
+	private final ReentrantLock latch;
+	private final Map<PageId, PageLock> pageLocks;
 	// Map to a set to avoid duplicates
-	private Map<TransactionId, Set<PageId>> transactionToPages;
-	private Map<PageId, Set<TransactionId>> pageToTransactions;
-	private Map<PageId, Permissions> pageToPermissions;
-	private Map<TransactionId, PageId> transactionToPage; // Transaction acquiring a lock
+	private final Map<TransactionId, Set<PageId>> transactionToPages;
+	private final Map<TransactionId, PageId> transactionToPage; // Transaction waiting for a lock
+	// Waits of the most contended pages, at most MAX_WAIT_STATS_PAGES of them
+	private final Map<PageId, WaitStats> waitStats;
+	// Waits on all pages, including those no longer in waitStats
+	private long totalWaits;
+	private long totalWaitNanos;
+	private volatile long lockTimeoutMillis;
 
 	public LockManager() {
+		latch = new ReentrantLock();
+		pageLocks = new HashMap<PageId, PageLock>();
 		transactionToPages = new HashMap<TransactionId, Set<PageId>>();
-		pageToTransactions = new HashMap<PageId, Set<TransactionId>>();
-		pageToPermissions = new HashMap<PageId, Permissions>();
 		transactionToPage = new HashMap<TransactionId, PageId>();
+		waitStats = new HashMap<PageId, WaitStats>();
+		lockTimeoutMillis = NO_TIMEOUT;
 	}
 
-	public synchronized boolean transactionContainsLock(TransactionId tid, PageId pid) {
-		return (transactionToPages.containsKey(tid) && transactionToPages.get(tid).contains(pid) && 
-				pageToTransactions.containsKey(pid) && pageToTransactions.get(pid).contains(tid));
+	/**
+	 * Sets how long a transaction waits for a lock before it is aborted.
+	 * @param millis the timeout in milliseconds, or NO_TIMEOUT to wait indefinitely
+	 */
+	public void setLockTimeout(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("lock timeout must not be negative");
+		}
+		lockTimeoutMillis = millis;
 	}
 
-	public synchronized boolean acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-		if (!transactionToPage.containsKey(tid)) {
-			transactionToPage.put(tid, pid);
-			this.checkForDeadlock(tid, pid);
-		}
-		if (!this.canAcquireLock(tid, pid, perm)) {
-			return false;
-		}
-		if (!pageToTransactions.containsKey(pid)) {
-			pageToTransactions.put(pid, new HashSet<TransactionId>());
+	/** @return the lock-wait timeout in milliseconds, or NO_TIMEOUT */
+	public long getLockTimeout() {
+		return lockTimeoutMillis;
+	}
+
+	public boolean transactionContainsLock(TransactionId tid, PageId pid) {
+		latch.lock();
+		try {
+			PageLock lock = pageLocks.get(pid);
+			return lock != null && lock.holders.contains(tid);
+		} finally {
+			latch.unlock();
 		}
-		if (!transactionToPages.containsKey(tid)) {
-			transactionToPages.put(tid, new HashSet<PageId>());
+	}
+
+	/** @return the transaction holding an exclusive lock on the page, or null if there is none */
+	public TransactionId getExclusiveHolder(PageId pid) {
+		latch.lock();
+		try {
+			PageLock lock = pageLocks.get(pid);
+			if (lock == null || lock.mode != Permissions.READ_WRITE) {
+				return null;
+			}
+			return lock.holders.iterator().next();
+		} finally {
+			latch.unlock();
 		}
-		transactionToPages.get(tid).add(pid);
-		pageToTransactions.get(pid).add(tid);
-		// Assigns READ_ONLY or READ_WRITE permissions
-		pageToPermissions.put(pid, perm);
-		// No longer trying to acquire lock
-		transactionToPage.remove(tid);
-		return true;
 	}
 
-	public synchronized boolean canAcquireLock(TransactionId tid, PageId pid, Permissions perm) {
-		// Check if there are no locks on the page
-		if (!pageToTransactions.containsKey(pid)) {
+	/**
+	 * Acquires a lock on the given page, waiting until it is granted.
+	 * @return true once the lock is held
+	 * @throws TransactionAbortedException if waiting would deadlock, the
+	 *         lock-wait timeout expires, or the waiting thread is interrupted
+	 */
+	public boolean acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+		latch.lock();
+		try {
+			PageLock lock = pageLocks.get(pid);
+			if (lock == null) {
+				lock = new PageLock();
+				pageLocks.put(pid, lock);
+			}
+			if (this.canGrant(lock, tid, perm, lock.waiters.isEmpty())) {
+				this.grant(lock, tid, pid, perm);
+				return true;
+			}
+			LockRequest request = new LockRequest(tid, perm, latch.newCondition());
+			if (lock.holders.contains(tid)) {
+				// Upgrades go first, otherwise they would wait behind
+				// transactions that are themselves waiting for this one
+				lock.waiters.addFirst(request);
+			} else {
+				lock.waiters.addLast(request);
+			}
+			transactionToPage.put(tid, pid);
+			long start = System.nanoTime();
+			try {
+				this.checkForDeadlock(tid);
+				long timeout = lockTimeoutMillis;
+				long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+				while (!request.granted) {
+					if (timeout == NO_TIMEOUT) {
+						request.grantedCondition.await();
+					} else {
+						if (remaining <= 0) {
+							throw new TransactionAbortedException();
+						}
+						remaining = request.grantedCondition.awaitNanos(remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TransactionAbortedException();
+			} finally {
+				transactionToPage.remove(tid);
+				this.recordWait(pid, System.nanoTime() - start);
+				if (!request.granted) {
+					lock.waiters.remove(request);
+					// Requests queued behind this one may be grantable now
+					this.grantWaiters(lock, pid);
+					this.removeIfUnused(lock, pid);
+				}
+			}
 			return true;
+		} finally {
+			latch.unlock();
 		}
-		// Check if trying to acquire another share lock
-		if (perm.equals(Permissions.READ_ONLY)) {
-			// Check if another share lock exists
-			if (pageToPermissions.get(pid).equals(Permissions.READ_ONLY)) {
+	}
+
+	/**
+	 * Checks whether tid could be given the lock right now.
+	 * @param queueEmpty whether no other request is queued ahead of this one
+	 */
+	private boolean canGrant(PageLock lock, TransactionId tid, Permissions perm, boolean queueEmpty) {
+		if (lock.holders.contains(tid)) {
+			// Re-requesting a lock that is already strong enough
+			if (perm.equals(Permissions.READ_ONLY) || Permissions.READ_WRITE.equals(lock.mode)) {
 				return true;
-			} else {
-				// Can acquire shared lock if the transaction owns an exclusive lock
-				return pageToTransactions.get(pid).contains(tid);
 			}
+			// Upgrade to an exclusive lock if tid is the only holder of the shared lock
+			return lock.holders.size() == 1;
+		}
+		if (!queueEmpty) {
+			return false;
+		}
+		// Check if there are no locks on the page
+		if (lock.holders.isEmpty()) {
+			return true;
 		}
-		// Check if trying to upgrade to an exclusive lock
-		if (perm.equals(Permissions.READ_WRITE) && pageToPermissions.get(pid).equals(Permissions.READ_ONLY)) {
-			boolean hasOnlyOneTransaction = pageToTransactions.containsKey(pid) && (pageToTransactions.get(pid).size() == 1);
-			// Check if the transaction is the only transaction holding a shared lock on the given page
-			return pageToTransactions.get(pid).contains(tid) && hasOnlyOneTransaction;
-		} 
-		// Check if the transaction can ask for an exclusive lock again
-		return pageToTransactions.get(pid).contains(tid);	
+		// Share the lock with other readers
+		return perm.equals(Permissions.READ_ONLY) && Permissions.READ_ONLY.equals(lock.mode);
 	}
 
-	public synchronized void releaseLock(TransactionId tid, PageId pid) {
-		// Check if the given transaction has a lock on the given page
-		if (!pageToTransactions.containsKey(pid) || !pageToTransactions.get(pid).contains(tid)) {
-			return;
+	private void grant(PageLock lock, TransactionId tid, PageId pid, Permissions perm) {
+		lock.holders.add(tid);
+		if (perm.equals(Permissions.READ_WRITE) || lock.mode == null) {
+			lock.mode = perm;
 		}
-		if (!transactionToPages.containsKey(tid) || !transactionToPages.get(tid).contains(pid)) {
-			return;
+		Set<PageId> pageIds = transactionToPages.get(tid);
+		if (pageIds == null) {
+			pageIds = new HashSet<PageId>();
+			transactionToPages.put(tid, pageIds);
 		}
-		transactionToPages.get(tid).remove(pid);
-		pageToTransactions.get(pid).remove(tid);
-		if (transactionToPages.get(tid).isEmpty()) {
-			transactionToPages.remove(tid);
+		pageIds.add(pid);
+	}
+
+	/** Grants the lock to queued requests in FIFO order for as long as they are compatible. */
+	private void grantWaiters(PageLock lock, PageId pid) {
+		while (!lock.waiters.isEmpty()) {
+			LockRequest head = lock.waiters.peek();
+			if (!this.canGrant(lock, head.tid, head.perm, true)) {
+				return;
+			}
+			lock.waiters.poll();
+			this.grant(lock, head.tid, pid, head.perm);
+			head.granted = true;
+			head.grantedCondition.signal();
 		}
-		if (pageToTransactions.get(pid).isEmpty()) {
-			pageToTransactions.remove(pid);
-			pageToPermissions.remove(pid);
+	}
+
+	private void removeIfUnused(PageLock lock, PageId pid) {
+		if (lock.holders.isEmpty() && lock.waiters.isEmpty()) {
+			pageLocks.remove(pid);
+		}
+	}
+
+	public void releaseLock(TransactionId tid, PageId pid) {
+		latch.lock();
+		try {
+			// Check if the given transaction has a lock on the given page
+			PageLock lock = pageLocks.get(pid);
+			if (lock == null || !lock.holders.remove(tid)) {
+				return;
+			}
+			Set<PageId> pageIds = transactionToPages.get(tid);
+			if (pageIds != null) {
+				pageIds.remove(pid);
+				if (pageIds.isEmpty()) {
+					transactionToPages.remove(tid);
+				}
+			}
+			if (lock.holders.isEmpty()) {
+				lock.mode = null;
+			}
+			this.grantWaiters(lock, pid);
+			this.removeIfUnused(lock, pid);
+		} finally {
+			latch.unlock();
 		}
 	}
 
-	public synchronized Set<PageId> getPageIdsOfTransaction(TransactionId tid) {
-		// Get pageIds of given transaction
-		Set<PageId> pageIds = new HashSet<PageId>();
-		for (PageId pageId : transactionToPages.get(tid)) {
-			pageIds.add(pageId);
+	public Set<PageId> getPageIdsOfTransaction(TransactionId tid) {
+		latch.lock();
+		try {
+			// Get pageIds of given transaction
+			Set<PageId> pageIds = new HashSet<PageId>();
+			if (transactionToPages.containsKey(tid)) {
+				pageIds.addAll(transactionToPages.get(tid));
+			}
+			return pageIds;
+		} finally {
+			latch.unlock();
 		}
-		return pageIds;
 	}
 
-	public synchronized void releaseLocksOfTransaction(TransactionId tid) {
-		if (!transactionToPages.containsKey(tid)) {
-			return;
+	public void releaseLocksOfTransaction(TransactionId tid) {
+		latch.lock();
+		try {
+			for (PageId pageId : this.getPageIdsOfTransaction(tid)) {
+				this.releaseLock(tid, pageId);
+			}
+		} finally {
+			latch.unlock();
 		}
-		Set<PageId> pageIds = this.getPageIdsOfTransaction(tid);
-		for (PageId pageId : pageIds) {
-			this.releaseLock(tid, pageId);
+	}
+
+	/**
+	 * Checks whether the waits-for graph has a cycle through the given
+	 * waiting transaction. A waiting transaction waits for the holders of
+	 * the page it wants and for the requests queued ahead of its own.
+	 * @throws TransactionAbortedException if there is a cycle
+	 */
+	private void checkForDeadlock(TransactionId startingTransactionId) throws TransactionAbortedException {
+		Set<TransactionId> transactionsVisited = new HashSet<TransactionId>();
+		Deque<TransactionId> toVisit = new ArrayDeque<TransactionId>();
+		toVisit.addAll(this.getWaitedForTransactionIds(startingTransactionId));
+		while (!toVisit.isEmpty()) {
+			TransactionId transactionId = toVisit.poll();
+			// Check if there is a cycle in terms of dependencies
+			if (transactionId.equals(startingTransactionId)) {
+				throw new TransactionAbortedException();
+			}
+			if (transactionsVisited.add(transactionId)) {
+				toVisit.addAll(this.getWaitedForTransactionIds(transactionId));
+			}
 		}
-		transactionToPage.remove(tid);
 	}
 
+	private Set<TransactionId> getWaitedForTransactionIds(TransactionId tid) {
+		Set<TransactionId> waitedFor = new HashSet<TransactionId>();
+		// Check if the given transaction is not trying to acquire a lock
+		PageId pageId = transactionToPage.get(tid);
+		if (pageId == null) {
+			return waitedFor;
+		}
+		PageLock lock = pageLocks.get(pageId);
+		if (lock == null) {
+			return waitedFor;
+		}
+		waitedFor.addAll(lock.holders);
+		for (LockRequest request : lock.waiters) {
+			if (request.tid.equals(tid)) {
+				break;
+			}
+			waitedFor.add(request.tid);
+		}
+		waitedFor.remove(tid);
+		return waitedFor;
+	}
 
-	public synchronized void checkForDeadlock(TransactionId startingTransactionId, PageId pageId) throws TransactionAbortedException {
-		// Check if a lock is contained on the given page
-		if (pageToTransactions.containsKey(pageId)) {
-			for (TransactionId transactionId : pageToTransactions.get(pageId)) {
-				// Check the other transactions
-				if (!startingTransactionId.equals(transactionId)) {
-					Set<TransactionId> transactionsVisited = new HashSet<TransactionId>();
-					this.checkForDeadlock(transactionsVisited, transactionId);
+	private void recordWait(PageId pid, long nanos) {
+		totalWaits++;
+		totalWaitNanos += nanos;
+		WaitStats stats = waitStats.get(pid);
+		if (stats == null) {
+			if (waitStats.size() >= MAX_WAIT_STATS_PAGES) {
+				// Make room by forgetting the page with the least wait time
+				PageId leastContended = null;
+				for (Map.Entry<PageId, WaitStats> entry : waitStats.entrySet()) {
+					if (leastContended == null || entry.getValue().waitNanos < waitStats.get(leastContended).waitNanos) {
+						leastContended = entry.getKey();
+					}
 				}
+				waitStats.remove(leastContended);
 			}
+			stats = new WaitStats();
+			waitStats.put(pid, stats);
 		}
+		stats.waits++;
+		stats.waitNanos += nanos;
 	}
 
-	public synchronized void checkForDeadlock(Set<TransactionId> transactionsVisited, TransactionId currentTransactionId) throws TransactionAbortedException {
-		// Check if there is a cycle in terms of dependencies
-		if (transactionsVisited.contains(currentTransactionId)) {
-			throw new TransactionAbortedException();
+	/**
+	 * @return the number of times a transaction had to wait for a lock on
+	 *         the page, or 0 if the page is not among the
+	 *         MAX_WAIT_STATS_PAGES most contended ones
+	 */
+	public long getLockWaitCount(PageId pid) {
+		latch.lock();
+		try {
+			WaitStats stats = waitStats.get(pid);
+			return stats == null ? 0 : stats.waits;
+		} finally {
+			latch.unlock();
 		}
-		transactionsVisited.add(currentTransactionId);
-		Set<TransactionId> waitingTransactionIds = this.getWaitingTransactionIds(currentTransactionId);
-		for (TransactionId transactionId : waitingTransactionIds) {
-			// Check the other transactions
-			if (!currentTransactionId.equals(transactionId)) {
-				this.checkForDeadlock(transactionsVisited, transactionId);
-			}
+	}
+
+	/**
+	 * @return the total time, in nanoseconds, transactions waited for a
+	 *         lock on the page, or 0 if the page is not among the
+	 *         MAX_WAIT_STATS_PAGES most contended ones
+	 */
+	public long getLockWaitNanos(PageId pid) {
+		latch.lock();
+		try {
+			WaitStats stats = waitStats.get(pid);
+			return stats == null ? 0 : stats.waitNanos;
+		} finally {
+			latch.unlock();
 		}
 	}
 
-	public synchronized Set<TransactionId> getWaitingTransactionIds(TransactionId tid) {
-		Set<TransactionId> waitingTransactionIds = new HashSet<TransactionId>();
-		// Check if the given transaction is not trying to acquire a lock 
-		if (!transactionToPage.containsKey(tid)) {
-			return waitingTransactionIds;
+	/** @return the number of times a transaction had to wait for a lock on any page */
+	public long getTotalLockWaits() {
+		latch.lock();
+		try {
+			return totalWaits;
+		} finally {
+			latch.unlock();
 		}
-		// Get the page to which the given transaction is trying to aquire a lock on
-		PageId pageId = transactionToPage.get(tid);
-		if (!pageToTransactions.containsKey(pageId)) {
-			return waitingTransactionIds;
+	}
+
+	/** @return the total time, in nanoseconds, transactions waited for a lock on any page */
+	public long getTotalLockWaitNanos() {
+		latch.lock();
+		try {
+			return totalWaitNanos;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * @return the pages transactions have waited on, most total wait time
+	 *         first; at most MAX_WAIT_STATS_PAGES of them
+	 */
+	public List<PageId> getMostContendedPages() {
+		latch.lock();
+		try {
+			List<PageId> pageIds = new ArrayList<PageId>(waitStats.keySet());
+			Collections.sort(pageIds, new Comparator<PageId>() {
+				public int compare(PageId a, PageId b) {
+					return Long.compare(waitStats.get(b).waitNanos, waitStats.get(a).waitNanos);
+				}
+			});
+			return pageIds;
+		} finally {
+			latch.unlock();
 		}
-		Set<TransactionId> transactionIds = pageToTransactions.get(pageId);
-		// Store transactionIds to which holds a lock on pageId
-		for (TransactionId transactionId : transactionIds) {
-			waitingTransactionIds.add(transactionId);
-		} 
-		return waitingTransactionIds;
 	}
-}
\ No newline at end of file
+}
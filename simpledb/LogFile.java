@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and BULK_LOAD
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +67,12 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_LOAD records consist of an integer table id, an integer first
+page number and an integer page count.  They are written by the
+BulkLoader before it writes pages straight to the table file; the pages
+hold no data the transaction needs to keep if it does not commit, so
+rollback simply empties them again.
+
 </ul>
 
 */
@@ -82,6 +88,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_LOAD_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -265,7 +272,14 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // Pages are rebuilt with their (id, byte[]) constructor
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +289,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            if (pageConst == null) {
+                throw new IOException("no page constructor in " + pageClassName);
+            }
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +312,31 @@ public class LogFile {
 
     }
 
+    /** Write a BULK_LOAD record to disk for the specified tid and
+        pages, and force the log to disk, so the pages can be written
+        to the table file directly afterwards.
+
+        @param tid The transaction loading the pages
+        @param tableId The table the pages are appended to
+        @param firstPage The page number of the first page
+        @param count The number of pages
+
+        @see simpledb.BulkLoader
+    */
+    public synchronized void logBulkLoad(TransactionId tid, int tableId, int firstPage, int count)
+        throws IOException {
+        Debug.log("BULK LOAD, offset = " + raf.getFilePointer());
+        preAppend();
+        raf.writeInt(BULK_LOAD_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(count);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -429,6 +471,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_LOAD_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -491,6 +538,11 @@ public class LogFile {
                     Page beforeImage = this.readPageData(raf);
                     PageId beforeImagePageId = beforeImage.getId();
                     Database.getCatalog().getDatabaseFile(beforeImagePageId.getTableId()).writePage(beforeImage);
+                } else if (recordTransactionIdValue == transactionIdValue && recordType == BULK_LOAD_RECORD) {
+                    int tableId = raf.readInt();
+                    int firstPage = raf.readInt();
+                    int count = raf.readInt();
+                    this.emptyPages(tableId, firstPage, count);
                 } else if (recordTransactionIdValue == transactionIdValue && recordType == COMMIT_RECORD) {
                     throw new IOException();
                 }
@@ -501,14 +553,47 @@ public class LogFile {
     }
 
 
+    /** Overwrites pages written by a bulk load with empty pages. */
+    private void emptyPages(int tableId, int firstPage, int count) throws IOException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        for (int i = 0; i < count; i++) {
+            HeapPageId pid = new HeapPageId(tableId, firstPage + i);
+            Database.getBufferPool().discardPage(pid);
+            file.writePage(file.createPage(pid, HeapPage.createEmptyPageData()));
+            file.updateFreeSpace(pid.getPageNumber(), true);
+        }
+    }
+
+    /** Returns the file the buffer pool's hot pages are saved to at
+        shutdown, next to the log file.
+    */
+    public File getHotPageFile() {
+        return new File(logFile.getAbsoluteFile().getParentFile(), logFile.getName() + ".hot");
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            // Remember what was cached so the next start can warm up quickly.
+            // Saved before taking any lock: it latches every shard, and
+            // commits hold a shard latch while they write to the log
+            Database.getBufferPool().saveHotPages(this.getHotPageFile());
+            synchronized (Database.getBufferPool()) {
+                synchronized (this) {
+                    logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+                    Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+                    while (tableIds.hasNext()) {
+                        DbFile file = Database.getCatalog().getDatabaseFile(tableIds.next());
+                        if (file instanceof HeapFile) {
+                            ((HeapFile) file).getFreeSpaceMap().flush();
+                        }
+                    }
+                    raf.close();
+                }
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -570,6 +655,13 @@ public class LogFile {
                         case BEGIN_RECORD:
                             tidToFirstLogRecord.put(recordTransactionIdValue, startingOffset);
                             break;
+                        case BULK_LOAD_RECORD:
+                            // Committed loads were forced to the table file
+                            // before the commit; losers are emptied below
+                            raf.readInt();
+                            raf.readInt();
+                            raf.readInt();
+                            break;
                         default:
                             break;  
                     }
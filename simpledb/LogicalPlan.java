@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -258,6 +259,59 @@ public class LogicalPlan {
 
     }
 
+    /** Find the columns of the table scanned as alias that the select list, filters, joins,
+     *  aggregate or ORDER BY of this plan refer to.
+     *  @return the indexes of those columns in td, in ascending order; all columns if the select
+     *   list contains *, and at least one column so that rows can still be counted
+     */
+    int[] columnsUsed(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+
+        TreeSet<Integer> columns = new TreeSet<Integer>();
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            String[] parts = name.split("[.]");
+            if (parts.length != 2) {
+                continue;
+            }
+            if (parts[1].equals("*") && (parts[0].equals("null") || parts[0].equals(alias))) {
+                for (int i = 0; i < td.numFields(); i++) {
+                    columns.add(i);
+                }
+            } else if (parts[0].equals(alias)) {
+                try {
+                    columns.add(td.fieldNameToIndex(parts[1]));
+                } catch (NoSuchElementException e) {
+                    // reported when the operator using the field is built
+                }
+            }
+        }
+        if (columns.isEmpty()) {
+            columns.add(0);
+        }
+        int[] result = new int[columns.size()];
+        int i = 0;
+        for (Integer column : columns) {
+            result[i++] = column;
+        }
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -294,7 +348,13 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                if (file instanceof ColumnFile) {
+                    // Only read the columns the rest of the plan refers to
+                    ss = new ColumnScan(t, file.getId(), table.alias, this.columnsUsed(table.alias, file.getTupleDesc()));
+                } else {
+                    ss = new SeqScan(t, file.getId(), table.alias);
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum). Each page remembers
+ * the times of its last K references; the victim is the evictable page whose
+ * K-th most recent reference is the oldest. Pages referenced fewer than K
+ * times count as infinitely old and are evicted first, least recently used
+ * first, so a page touched once by a large scan is given up before a page
+ * that is referenced repeatedly.
+ * <p>
+ * The history of recently evicted pages is retained for a while, so a page
+ * that comes back soon after being evicted keeps its earlier references.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /** Default number of references remembered per page. */
+    public static final int DEFAULT_K = 2;
+
+    /** Default number of evicted page histories that are retained. */
+    public static final int DEFAULT_RETAINED_HISTORIES = 1024;
+
+    /** Reference history of a single page. */
+    private static class History {
+        final PageId pid;
+        // Most recent reference first; 0 means "no reference"
+        final long[] times;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void reference(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+        }
+
+        long kthTime() {
+            return times[times.length - 1];
+        }
+
+        long lastTime() {
+            return times[0];
+        }
+    }
+
+    /** Orders histories from best to worst eviction candidate. */
+    private static final Comparator<History> EVICTION_ORDER = new Comparator<History>() {
+        public int compare(History a, History b) {
+            if (a.kthTime() != b.kthTime()) {
+                return a.kthTime() < b.kthTime() ? -1 : 1;
+            }
+            if (a.lastTime() != b.lastTime()) {
+                return a.lastTime() < b.lastTime() ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final int k;
+    private final int retainedHistories;
+    private long clock;
+    private Map<PageId, History> resident;
+    private TreeSet<History> evictionOrder;
+    private LinkedHashMap<PageId, History> retained;
+
+    /** Creates an LRU-2 policy. */
+    public LruKReplacementPolicy() {
+        this(DEFAULT_K, DEFAULT_RETAINED_HISTORIES);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k the number of references remembered per page; must be at least 1
+     * @param retainedHistories the number of evicted page histories to keep
+     */
+    public LruKReplacementPolicy(int k, final int retainedHistories) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.retainedHistories = retainedHistories;
+        this.clock = 0;
+        this.resident = new HashMap<PageId, History>();
+        // Every reference gets a distinct time, so two resident pages never
+        // compare as equal (their last references differ)
+        this.evictionOrder = new TreeSet<History>(EVICTION_ORDER);
+        this.retained = new LinkedHashMap<PageId, History>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedHistories;
+            }
+        };
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (resident.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        History history = retained.remove(pid);
+        if (history == null) {
+            history = new History(pid, k);
+        }
+        history.reference(++clock);
+        resident.put(pid, history);
+        evictionOrder.add(history);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History history = resident.get(pid);
+        if (history == null) {
+            return;
+        }
+        // The ordering key changes, so the entry has to be re-inserted
+        evictionOrder.remove(history);
+        history.reference(++clock);
+        evictionOrder.add(history);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History history = resident.remove(pid);
+        if (history != null) {
+            evictionOrder.remove(history);
+            retained.put(pid, history);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Candidate candidate) {
+        for (History history : evictionOrder) {
+            if (candidate.isEvictable(history.pid)) {
+                return history.pid;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<PageId> getResidentPages() {
+        List<PageId> pageIds = new ArrayList<PageId>(evictionOrder.size());
+        for (History history : evictionOrder.descendingSet()) {
+            pageIds.add(history.pid);
+        }
+        return pageIds;
+    }
+
+    public ReplacementPolicy newInstance() {
+        return new LruKReplacementPolicy(k, retainedHistories);
+    }
+}
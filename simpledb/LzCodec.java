@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LzCodec is a small LZ77 compressor in the style of LZ4, used to store
+ * pages of a CompressedHeapFile. It favours speed over ratio: matches are
+ * found through a single hash table of recent 4-byte sequences and there
+ * is no entropy coding. Page images compress well anyway, because empty
+ * slots and the padding of strings are runs of zeros.
+ * <p>
+ * The compressed form is a series of sequences. Each starts with a token
+ * byte whose high 4 bits are the number of literals and low 4 bits the
+ * match length minus MIN_MATCH; a value of 15 is continued by extra bytes
+ * that are added to it, up to and including the first byte below 255. The
+ * literals follow, then the match offset as two bytes, low byte first. The
+ * last sequence has literals only and ends the input.
+ */
+public class LzCodec {
+
+    /** Shortest match that is encoded as a match. */
+    public static final int MIN_MATCH = 4;
+
+    /** Largest distance back a match can start at. */
+    public static final int MAX_OFFSET = 65535;
+
+    private static final int HASH_BITS = 12;
+
+    private LzCodec() {
+    }
+
+    /** @return the largest size the compressed form of len bytes can take */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Compresses len bytes of src, starting at off.
+     *
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] src, int off, int len) {
+        byte[] dst = new byte[maxCompressedLength(len)];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int end = off + len;
+        int ip = off;
+        int anchor = off;
+        int op = 0;
+        while (ip + MIN_MATCH <= end) {
+            int h = hash(src, ip);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || !equal4(src, ref, ip)) {
+                ip++;
+                continue;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < end && src[ref + matchLen] == src[ip + matchLen]) {
+                matchLen++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+            ip += matchLen;
+            anchor = ip;
+        }
+        op = writeSequence(src, anchor, end - anchor, 0, 0, dst, op);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * Decompresses len bytes of src, starting at off, into dst, which must
+     * have room for the whole uncompressed form.
+     *
+     * @return the number of bytes written to dst
+     * @throws IOException if the input is not valid compressed data
+     */
+    public static int decompress(byte[] src, int off, int len, byte[] dst) throws IOException {
+        int end = off + len;
+        int ip = off;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int token = src[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) {
+                    break;
+                }
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLen = token & 0x0f;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                if (offset == 0 || offset > op || op + matchLen > dst.length) {
+                    throw new IOException("corrupt compressed data");
+                }
+                // Byte by byte, as the match may overlap what it produces
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op + i] = dst[op - offset + i];
+                }
+                op += matchLen;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed data");
+        }
+        return op;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLen,
+            byte[] dst, int op) {
+        int tokenPos = op++;
+        int literalCode = Math.min(literals, 15);
+        int matchCode = matchLen == 0 ? 0 : Math.min(matchLen - MIN_MATCH, 15);
+        dst[tokenPos] = (byte) (literalCode << 4 | matchCode);
+        if (literalCode == 15) {
+            op = writeLength(literals - 15, dst, op);
+        }
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+        if (matchLen == 0) {
+            return op;
+        }
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (matchCode == 15) {
+            op = writeLength(matchLen - MIN_MATCH - 15, dst, op);
+        }
+        return op;
+    }
+
+    private static int writeLength(int rest, byte[] dst, int op) {
+        while (rest >= 255) {
+            dst[op++] = (byte) 255;
+            rest -= 255;
+        }
+        dst[op++] = (byte) rest;
+        return op;
+    }
+
+    private static int hash(byte[] b, int i) {
+        int v = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static boolean equal4(byte[] b, int i, int j) {
+        return b[i] == b[j] && b[i + 1] == b[j + 1] && b[i + 2] == b[j + 2] && b[i + 3] == b[j + 3];
+    }
+}
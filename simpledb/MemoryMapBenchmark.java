@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Compares reading pages of a heap file through memory-mapped segments
+ * with reading them through its FileChannel. It reads a fixed random
+ * sequence of pages, decodes the first field of every tuple on each, and
+ * prints the pages read per second for every round. Mapped pages decode
+ * straight out of the mapping, while channel reads copy each page into an
+ * array first.
+ * <p>
+ * Run it once per mode, each in its own JVM: with both kinds of page
+ * buffers in one JVM the field accesses are compiled for either, which
+ * slows down both. Compare the later rounds, and run it once with the
+ * file in the OS page cache and once after dropping the cache.
+ * <p>
+ * Usage: java simpledb.MemoryMapBenchmark file.dat numColumns mmap|channel [reads] [rounds]
+ */
+public class MemoryMapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || !(args[2].equals("mmap") || args[2].equals("channel"))) {
+            System.err.println("Usage: MemoryMapBenchmark file.dat numColumns mmap|channel [reads] [rounds]");
+            return;
+        }
+        TupleDesc td = Utility.getTupleDesc(Integer.parseInt(args[1]));
+        HeapFile file = new HeapFile(new File(args[0]), td, args[2].equals("mmap"));
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        int reads = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        if (file.numPages() == 0) {
+            System.err.println(args[0] + " has no pages");
+            return;
+        }
+        Random random = new Random(0);
+        int[] pageNumbers = new int[reads];
+        for (int i = 0; i < reads; i++) {
+            pageNumbers[i] = random.nextInt(file.numPages());
+        }
+        System.out.println("round\tmode\tpages/s\tMB/s\tchecksum");
+        for (int round = 1; round <= rounds; round++) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (int pageNumber : pageNumbers) {
+                HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), pageNumber));
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    checksum += ((IntField) it.next().getField(0)).getValue();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d\t%s\t%.0f\t%.1f\t%d%n", round, args[2],
+                    reads / seconds, reads * (double) BufferPool.getPageSize() / (1 << 20) / seconds, checksum);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PageArena hands out page-sized frames carved from large direct ByteBuffer
+ * slabs, so the bytes of cached pages live outside the Java heap and do not
+ * add to garbage collection work. Slabs are never freed; a frame goes back
+ * to the free list once the object it was allocated for has been garbage
+ * collected, and is reused by a later allocation.
+ *
+ * @see BufferPool#setOffHeapFrames
+ */
+public class PageArena {
+
+    /** Number of frames carved from each slab. */
+    public static final int SLAB_PAGES = 256;
+
+    private static PageArena instance;
+
+    /** Tracks the owner of some frames, which are released once the owner is unreachable. */
+    private static class FrameReference extends PhantomReference<Object> {
+        final ByteBuffer[] frames;
+
+        FrameReference(Object owner, ByteBuffer[] frames, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.frames = frames;
+        }
+    }
+
+    private final int pageSize;
+    private final List<ByteBuffer> slabs;
+    private final ArrayDeque<ByteBuffer> freeFrames;
+    private final ReferenceQueue<Object> released;
+    // Keeps the references themselves reachable until their owner is collected
+    private final Set<FrameReference> owners;
+
+    private PageArena(int pageSize) {
+        this.pageSize = pageSize;
+        this.slabs = new ArrayList<ByteBuffer>();
+        this.freeFrames = new ArrayDeque<ByteBuffer>();
+        this.released = new ReferenceQueue<Object>();
+        this.owners = new HashSet<FrameReference>();
+    }
+
+    /** @return the arena for the current page size */
+    public static synchronized PageArena getInstance() {
+        if (instance == null || instance.pageSize != BufferPool.getPageSize()) {
+            // Frames of the old size are left to their current owners
+            instance = new PageArena(BufferPool.getPageSize());
+        }
+        return instance;
+    }
+
+    /**
+     * Allocates frames that stay reserved for as long as owner is
+     * reachable. Frames may hold the bytes of their previous owner.
+     *
+     * @param owner the object the frames belong to
+     * @param count the number of frames to allocate
+     * @return frames of one page each, positioned at 0
+     */
+    public synchronized ByteBuffer[] allocate(Object owner, int count) {
+        this.reclaim();
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            if (freeFrames.isEmpty()) {
+                this.addSlab();
+            }
+            frames[i] = freeFrames.poll();
+        }
+        owners.add(new FrameReference(owner, frames, released));
+        return frames;
+    }
+
+    /** Returns the frames of collected owners to the free list. */
+    private void reclaim() {
+        Reference<?> reference;
+        while ((reference = released.poll()) != null) {
+            FrameReference frameReference = (FrameReference) reference;
+            owners.remove(frameReference);
+            for (ByteBuffer frame : frameReference.frames) {
+                frame.clear();
+                freeFrames.add(frame);
+            }
+        }
+    }
+
+    private void addSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(pageSize * SLAB_PAGES);
+        slabs.add(slab);
+        for (int i = 0; i < SLAB_PAGES; i++) {
+            ByteBuffer view = slab.duplicate();
+            view.position(i * pageSize);
+            view.limit((i + 1) * pageSize);
+            freeFrames.add(view.slice());
+        }
+    }
+
+    /** @return the number of bytes of direct memory taken by the slabs */
+    public synchronized long getReservedBytes() {
+        return (long) slabs.size() * SLAB_PAGES * pageSize;
+    }
+
+    /** @return the number of frames ready to be handed out */
+    public synchronized int getFreeFrames() {
+        this.reclaim();
+        return freeFrames.size();
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner writes the pages of committed transactions to their files in
+ * the background. A commit only forces the log, and then hands its dirty
+ * pages to the cleaner; their update records are already on disk, so the
+ * pages can be written at any later time without breaking write-ahead
+ * logging. Pages are written in page order, table by table, so writes to a
+ * file are mostly sequential.
+ * <p>
+ * The cleaner writes continuously while the ratio of committed dirty pages to
+ * buffer pool frames is at or above the background threshold, and trickles a
+ * few pages per interval otherwise. A commit that leaves the ratio at or above
+ * the foreground threshold writes pages itself until it drops below again.
+ * <p>
+ * The cleaner thread is started on the first commit, and stops once its
+ * BufferPool is no longer the one returned by Database.getBufferPool.
+ *
+ * @see BufferPool#transactionComplete(TransactionId, boolean)
+ */
+public class PageCleaner implements Runnable {
+
+    /** Default dirty ratio above which the cleaner writes continuously. */
+    public static final double DEFAULT_BACKGROUND_RATIO = 0.1;
+
+    /** Default dirty ratio above which committing transactions write pages themselves. */
+    public static final double DEFAULT_FOREGROUND_RATIO = 0.5;
+
+    /** How long the cleaner sleeps between trickle writes. */
+    public static final long CLEAN_INTERVAL_MILLIS = 100;
+
+    /** Number of pages written per interval while below the background threshold. */
+    public static final int TRICKLE_PAGES = 8;
+
+    /** Orders pages by table, then by page number. */
+    private static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId()) {
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            }
+            if (a.getPageNumber() != b.getPageNumber()) {
+                return a.getPageNumber() < b.getPageNumber() ? -1 : 1;
+            }
+            // Files with several page chains, such as a ColumnFile, reuse
+            // page numbers; tell those pages apart by the rest of their id
+            int[] x = a.serialize();
+            int[] y = b.serialize();
+            for (int i = 0; i < Math.min(x.length, y.length); i++) {
+                if (x[i] != y[i]) {
+                    return x[i] < y[i] ? -1 : 1;
+                }
+            }
+            return Integer.compare(x.length, y.length);
+        }
+    };
+
+    private final BufferPool bufferPool;
+    // Committed dirty pages and the transaction that last committed them; guarded by this
+    private final TreeMap<PageId, TransactionId> pending;
+    // Where the next round of writes starts, so every page gets its turn
+    private PageId cursor;
+    private Thread thread;
+    private volatile double backgroundRatio;
+    private volatile double foregroundRatio;
+    private final AtomicLong backgroundWrites;
+    private final AtomicLong foregroundWrites;
+    private final AtomicLong evictionWrites;
+
+    public PageCleaner(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.pending = new TreeMap<PageId, TransactionId>(PAGE_ORDER);
+        this.backgroundRatio = DEFAULT_BACKGROUND_RATIO;
+        this.foregroundRatio = DEFAULT_FOREGROUND_RATIO;
+        this.backgroundWrites = new AtomicLong();
+        this.foregroundWrites = new AtomicLong();
+        this.evictionWrites = new AtomicLong();
+    }
+
+    /**
+     * Sets the dirty ratios, as fractions of the buffer pool frames, at which
+     * the cleaner writes continuously and at which committing transactions
+     * write pages themselves.
+     */
+    public void setDirtyRatioThresholds(double background, double foreground) {
+        if (background < 0 || background > foreground || foreground > 1) {
+            throw new IllegalArgumentException("thresholds must satisfy 0 <= background <= foreground <= 1");
+        }
+        this.backgroundRatio = background;
+        this.foregroundRatio = foreground;
+    }
+
+    public double getBackgroundRatio() {
+        return backgroundRatio;
+    }
+
+    public double getForegroundRatio() {
+        return foregroundRatio;
+    }
+
+    /**
+     * Records that a transaction committed changes to the given pages. The
+     * update records of the pages must already be forced to the log.
+     */
+    public synchronized void pagesCommitted(List<PageId> pageIds, TransactionId tid) {
+        for (PageId pid : pageIds) {
+            pending.put(pid, tid);
+        }
+        if (thread == null) {
+            thread = new Thread(this, "simpledb-page-cleaner");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        if (this.getDirtyRatio() >= backgroundRatio) {
+            this.notifyAll();
+        }
+    }
+
+    /** @return true if the page holds changes tid committed that are not on disk yet */
+    public synchronized boolean isCommitted(PageId pid, TransactionId tid) {
+        return tid.equals(pending.get(pid));
+    }
+
+    /** @return the transaction whose committed changes to the page are not on disk yet, or null */
+    public synchronized TransactionId getCommittedWriter(PageId pid) {
+        return pending.get(pid);
+    }
+
+    /** Records that the changes tid committed to the page reached disk. */
+    synchronized void pageWritten(PageId pid, TransactionId tid) {
+        if (tid.equals(pending.get(pid))) {
+            pending.remove(pid);
+        }
+    }
+
+    /** Forgets a page that was dropped from the buffer pool. */
+    synchronized void pageDiscarded(PageId pid) {
+        pending.remove(pid);
+    }
+
+    /** Counts a committed page that an eviction had to write itself. */
+    void evictionWrite() {
+        evictionWrites.incrementAndGet();
+    }
+
+    /** @return the number of committed dirty pages, as a fraction of the buffer pool frames */
+    public synchronized double getDirtyRatio() {
+        return (double) pending.size() / bufferPool.getNumPages();
+    }
+
+    /** @return the number of committed pages not written to disk yet */
+    public synchronized int getPendingPages() {
+        return pending.size();
+    }
+
+    /** @return the number of pages written by the cleaner thread */
+    public long getBackgroundWrites() {
+        return backgroundWrites.get();
+    }
+
+    /** @return the number of pages written by committing transactions */
+    public long getForegroundWrites() {
+        return foregroundWrites.get();
+    }
+
+    /** @return the number of committed pages written synchronously to free a frame */
+    public long getEvictionWrites() {
+        return evictionWrites.get();
+    }
+
+    /**
+     * Writes pages on the calling (committing) thread while the dirty ratio
+     * is at or above the foreground threshold.
+     */
+    void writeAboveForegroundRatio() {
+        while (this.getDirtyRatio() >= foregroundRatio) {
+            int written = this.writePages(TRICKLE_PAGES);
+            if (written == 0) {
+                return;
+            }
+            foregroundWrites.addAndGet(written);
+        }
+    }
+
+    /**
+     * Writes up to maxPages pending pages in page order, continuing after
+     * the page the previous round stopped at. Neighbouring pages go out in
+     * single writes.
+     * @return the number of pages written
+     */
+    private int writePages(int maxPages) {
+        List<Map.Entry<PageId, TransactionId>> batch = new ArrayList<Map.Entry<PageId, TransactionId>>();
+        synchronized (this) {
+            SortedMap<PageId, TransactionId> after = cursor == null ? pending : pending.tailMap(cursor, false);
+            Iterator<Map.Entry<PageId, TransactionId>> it = after.entrySet().iterator();
+            while (batch.size() < maxPages && batch.size() < pending.size()) {
+                if (!it.hasNext()) {
+                    // Wrap around to the first page
+                    it = pending.entrySet().iterator();
+                }
+                Map.Entry<PageId, TransactionId> entry = it.next();
+                if (!batch.isEmpty() && entry.getKey().equals(batch.get(0).getKey())) {
+                    break;
+                }
+                batch.add(new AbstractMap.SimpleEntry<PageId, TransactionId>(entry));
+            }
+            if (!batch.isEmpty()) {
+                cursor = batch.get(batch.size() - 1).getKey();
+            }
+        }
+        // Shard latches are taken without holding this monitor. The pages
+        // go out as their committed images, since a transaction that has
+        // locked one since may already be changing it
+        try {
+            return bufferPool.writeCommittedPages(batch);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    public void run() {
+        boolean caughtUp = true;
+        while (Database.getBufferPool() == bufferPool) {
+            try {
+                synchronized (this) {
+                    if (caughtUp || this.getDirtyRatio() < backgroundRatio) {
+                        this.wait(CLEAN_INTERVAL_MILLIS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            int written = this.writePages(TRICKLE_PAGES);
+            backgroundWrites.addAndGet(written);
+            // Keep going without sleeping while above the threshold, unless
+            // every pending page is held dirty by a running transaction
+            caughtUp = written == 0 || this.getDirtyRatio() < backgroundRatio;
+        }
+    }
+}
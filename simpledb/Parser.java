@@ -599,6 +599,8 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        // Checkpoints the log and saves the buffer pool's hot pages
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -607,6 +609,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // Reload the pages that were cached at the last shutdown
+        Database.getBufferPool().warmUp(Database.getLogFile().getHotPageFile());
         TableStats.computeStatistics();
 
         String queryFile = null;
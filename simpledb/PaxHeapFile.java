@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are PaxPages, which keep the
+ * values of each field together within the page. Scans whose filters and
+ * aggregates read int fields then loop over runs of ints instead of
+ * decoding tuples. Everything but the page format is inherited from
+ * HeapFile.
+ * <p>
+ * A table is stored this way if its line in the catalog file ends with
+ * "pax", e.g. <tt>orders (id int, price int, note string) pax</tt>.
+ *
+ * @see PaxPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer image) throws IOException {
+        return new PaxPage(pid, image);
+    }
+}
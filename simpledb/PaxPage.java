@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage is a HeapPage that stores the values of each field together
+ * (Partition Attributes Across). The page has the same header and the same
+ * number of slots as a HeapPage, but after the header it holds one run per
+ * field, in field order, with the value of that field for every slot:
+ * field j of slot i is at
+ * <p>
+ *      header size + number of slots * offset of field j + i * size of field j
+ * <p>
+ * where the offset of field j is its offset in a row, so the runs take as
+ * much space as the rows of a HeapPage.
+ * <p>
+ * Predicates on int fields, and the int values an aggregate reads, are
+ * evaluated with a loop over the field's run instead of decoding tuples.
+ * Tuples are still decoded lazily, field by field, from the page image.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /** Create a PaxPage on a page image without copying it, see HeapPage. */
+    PaxPage(HeapPageId id, ByteBuffer image) throws IOException {
+        super(id, image);
+    }
+
+    int fieldOffset(int slotId, int fieldIndex) {
+        return header.length + numSlots * td.getFieldOffset(fieldIndex) + slotId * td.getFieldLength(fieldIndex);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format described above.
+     */
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        // Slots that were never visited keep their values from the image
+        ByteBuffer image = data.duplicate();
+        image.clear();
+        image.get(page);
+        System.arraycopy(header, 0, page, 0, header.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Type.STRING_TYPE.getLen());
+        DataOutputStream dos = new DataOutputStream(bytes);
+        for (int i = 0; i < numSlots; i++) {
+            boolean used = isSlotUsed(i);
+            if (used && tuples[i] == null) {
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++) {
+                int len = td.getFieldLength(j);
+                if (!used) {
+                    Arrays.fill(page, fieldOffset(i, j), fieldOffset(i, j) + len, (byte) 0);
+                    continue;
+                }
+                bytes.reset();
+                try {
+                    writeField(j, tuples[i].getField(j), dos);
+                } catch (IOException e) {
+                    // Writing to memory does not fail
+                    throw new RuntimeException(e);
+                }
+                System.arraycopy(bytes.toByteArray(), 0, page, fieldOffset(i, j), len);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Filters the slots on the runs of int fields, reading values straight
+     * from the page image; other predicates are left to HeapPage.
+     */
+    int[] matchingSlots(List<Predicate> predicates) {
+        List<Predicate> others = new ArrayList<Predicate>();
+        List<Predicate> ints = new ArrayList<Predicate>();
+        for (Predicate p : predicates) {
+            if (td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                ints.add(p);
+            } else {
+                others.add(p);
+            }
+        }
+        int[] slots = super.matchingSlots(others);
+        int count = slots.length;
+        for (Predicate p : ints) {
+            int field = p.getField();
+            Predicate.Op op = p.getOp();
+            int operand = ((IntField) p.getOperand()).getValue();
+            int base = this.fieldOffset(0, field);
+            int kept = 0;
+            for (int k = 0; k < count; k++) {
+                int slot = slots[k];
+                int value = tuples[slot] == null ? data.getInt(base + slot * 4) : ((IntField) tuples[slot].getField(field)).getValue();
+                if (IntField.compare(value, op, operand)) {
+                    slots[kept++] = slot;
+                }
+            }
+            count = kept;
+        }
+        return count == slots.length ? slots : Arrays.copyOf(slots, count);
+    }
+
+    int[] intValues(int fieldIndex, int[] slots) {
+        int base = this.fieldOffset(0, fieldIndex);
+        int[] values = new int[slots.length];
+        for (int k = 0; k < slots.length; k++) {
+            int slot = slots[k];
+            values[k] = tuples[slot] == null ? data.getInt(base + slot * 4) : ((IntField) tuples[slot].getField(fieldIndex)).getValue();
+        }
+        return values;
+    }
+}
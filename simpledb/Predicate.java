@@ -11,6 +11,21 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    // Code of the operand in the dictionary of the last DictionaryField compared
+    private transient volatile OperandCode operandCode;
+
+    /** The code of the operand in a dictionary, looked up at a given dictionary size. */
+    private static class OperandCode {
+        final StringDictionary dictionary;
+        final int dictionarySize;
+        final int code;
+
+        OperandCode(StringDictionary dictionary, int dictionarySize, int code) {
+            this.dictionary = dictionary;
+            this.dictionarySize = dictionarySize;
+            this.code = code;
+        }
+    }
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -105,7 +120,39 @@ public class Predicate implements Serializable {
         // some code goes here
 
         // Get the tuple's field to compare to the operand field
-        return t.getField(field).compare(op, operand);
+        return this.filter(t.getField(field));
+    }
+
+    /**
+     * Compares a field to the operand using the operator. Equality of a
+     * DictionaryField is decided on its code.
+     */
+    boolean filter(Field f) {
+        if (f instanceof DictionaryField && this.comparesCodes()) {
+            return this.matchesCode(((DictionaryField) f).getDictionary(), ((DictionaryField) f).getCode());
+        }
+        return f.compare(op, operand);
+    }
+
+    /** @return whether the predicate can be decided on dictionary codes */
+    boolean comparesCodes() {
+        return (op == Op.EQUALS || op == Op.NOT_EQUALS) && operand.getType() == Type.STRING_TYPE;
+    }
+
+    /**
+     * Compares a code of a dictionary to the operand's code, looking the
+     * operand up once per dictionary. A value missing from the dictionary
+     * is looked up again once the dictionary has grown.
+     */
+    boolean matchesCode(StringDictionary dictionary, int code) {
+        OperandCode known = operandCode;
+        if (known == null || known.dictionary != dictionary
+                || (known.code < 0 && known.dictionarySize != dictionary.size())) {
+            int size = dictionary.size();
+            known = new OperandCode(dictionary, size, dictionary.lookup(StringField.valueOf(operand)));
+            operandCode = known;
+        }
+        return (code == known.code) == (op == Op.EQUALS);
     }
 
     /**
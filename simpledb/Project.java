@@ -73,7 +73,8 @@ public class Project extends Operator {
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                // Dictionary encoded values are decoded only here, on output
+                newTuple.setField(i, DictionaryField.decode(t.getField(outFieldIds.get(i))));
             }
             return newTuple;
         }
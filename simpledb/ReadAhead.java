@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * ReadAhead reads pages of a HeapFile in the background, ahead of a
+ * sequential scan. Pages that were read ahead are kept in a small staging
+ * area, outside the BufferPool, until HeapFile.readPage asks for them; a
+ * page that is written in the meantime is dropped from the staging area so
+ * it is never served stale. Consecutive pages that are not cached are read
+ * with a single HeapFile.readPages call on an AsyncPageIO thread.
+ * <p>
+ * The number of pages read ahead of a scan is set with setWindow and is
+ * shared by all files. Each file counts the pages it read ahead, how many of
+ * them were used, and how many were dropped unused.
+ *
+ * @see HeapFileIterator
+ */
+public class ReadAhead {
+
+    /** Default number of pages read ahead of a sequential scan. */
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** The staging area holds this many windows worth of pages at most. */
+    private static final int STAGED_WINDOWS = 4;
+
+    private static volatile int window = DEFAULT_WINDOW;
+
+    private final HeapFile file;
+    // Page number -> page being read or already read; guarded by this
+    private final LinkedHashMap<Integer, Future<Page>> staged;
+    private final AtomicLong pagesRequested;
+    private final AtomicLong hits;
+    private final AtomicLong wasted;
+
+    /**
+     * Sets the number of pages read ahead of a sequential scan.
+     * @param pages the window size; 0 disables read-ahead
+     */
+    public static void setWindow(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("read-ahead window must not be negative");
+        }
+        window = pages;
+    }
+
+    /** @return the number of pages read ahead of a sequential scan */
+    public static int getWindow() {
+        return window;
+    }
+
+    public ReadAhead(HeapFile file) {
+        this.file = file;
+        this.staged = new LinkedHashMap<Integer, Future<Page>>();
+        this.pagesRequested = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.wasted = new AtomicLong();
+    }
+
+    /**
+     * Starts reading the given pages in the background. Pages that are
+     * already staged or cached in the BufferPool, or that lie past the end of
+     * the file, are skipped.
+     *
+     * @param firstPage the first page to read
+     * @param count the number of consecutive pages to read
+     */
+    public void prefetch(int firstPage, int count) {
+        List<Integer> pageNumbers = new ArrayList<Integer>();
+        for (int pageNumber = Math.max(firstPage, 0); pageNumber < firstPage + count; pageNumber++) {
+            pageNumbers.add(pageNumber);
+        }
+        this.prefetch(pageNumbers);
+    }
+
+    /**
+     * Starts reading the given pages in the background, in ascending page
+     * number order. Pages that are already staged or cached in the
+     * BufferPool, or that lie past the end of the file, are skipped. Reads
+     * go through AsyncPageIO, so several runs can be in flight at once;
+     * once its queue is full the remaining pages are left to be read on
+     * demand.
+     *
+     * @param pageNumbers the pages to read
+     */
+    public void prefetch(Collection<Integer> pageNumbers) {
+        // Ask the BufferPool before taking this monitor: eviction writes
+        // pages under a shard latch, and page writes call invalidate
+        BufferPool bufferPool = Database.getBufferPool();
+        List<Integer> missing = new ArrayList<Integer>();
+        int numPages = file.numPages();
+        for (int pageNumber : new TreeSet<Integer>(pageNumbers)) {
+            if (pageNumber >= 0 && pageNumber < numPages && !bufferPool.isCached(new HeapPageId(file.getId(), pageNumber))) {
+                missing.add(pageNumber);
+            }
+        }
+        AsyncPageIO io = AsyncPageIO.getInstance();
+        synchronized (this) {
+            int i = 0;
+            while (i < missing.size()) {
+                if (staged.containsKey(missing.get(i))) {
+                    i++;
+                    continue;
+                }
+                // Extend the run over following pages that are missing too
+                int runEnd = i + 1;
+                while (runEnd < missing.size() && missing.get(runEnd) == missing.get(runEnd - 1) + 1
+                        && !staged.containsKey(missing.get(runEnd))) {
+                    runEnd++;
+                }
+                int runFirstPage = missing.get(i);
+                int runLength = runEnd - i;
+                CompletableFuture<List<Page>> run = io.tryReadPages(file, runFirstPage, runLength);
+                if (run == null) {
+                    break;
+                }
+                for (int j = 0; j < runLength; j++) {
+                    final int index = j;
+                    staged.put(runFirstPage + j, run.thenApply(new Function<List<Page>, Page>() {
+                        public Page apply(List<Page> pages) {
+                            return pages.get(index);
+                        }
+                    }));
+                }
+                pagesRequested.addAndGet(runLength);
+                i = runEnd;
+            }
+            // Drop the oldest pages nobody asked for if the staging area is full
+            Iterator<Future<Page>> it = staged.values().iterator();
+            while (staged.size() > Math.max(window, 1) * STAGED_WINDOWS && it.hasNext()) {
+                it.next().cancel(false);
+                it.remove();
+                wasted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes a page from the staging area and returns it, waiting for the
+     * read to finish if it is still in progress.
+     *
+     * @return the page, or null if it was not read ahead (or the read failed)
+     */
+    public Page take(int pageNumber) {
+        Future<Page> future;
+        synchronized (this) {
+            future = staged.remove(pageNumber);
+        }
+        if (future == null) {
+            return null;
+        }
+        try {
+            Page page = future.get();
+            hits.incrementAndGet();
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+
+    /** Drops a page from the staging area, e.g. because it was just written. */
+    public void invalidate(int pageNumber) {
+        Future<Page> future;
+        synchronized (this) {
+            future = staged.remove(pageNumber);
+        }
+        if (future != null) {
+            future.cancel(false);
+            wasted.incrementAndGet();
+        }
+    }
+
+    /** @return the number of pages this file has read ahead */
+    public long getPagesRequested() {
+        return pagesRequested.get();
+    }
+
+    /** @return the number of read-ahead pages that were later used by readPage */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of read-ahead pages that were dropped without being used */
+    public long getWasted() {
+        return wasted.get();
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs a free frame. The BufferPool reports every page it caches,
+ * touches, or drops, and asks the policy for a victim when it is full.
+ * <p>
+ * Policies only track page ids; the BufferPool remains the owner of the
+ * pages themselves and decides, through {@link Candidate}, whether a page
+ * may actually be evicted (e.g. it is not dirty).
+ *
+ * @see BufferPool
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /** Callback used by a policy to ask whether a page may be evicted. */
+    public interface Candidate {
+        /** @return true if the page with the given id may be evicted now. */
+        public boolean isEvictable(PageId pid);
+    }
+
+    /**
+     * Records that a page was brought into the buffer pool.
+     *
+     * @param pid the id of the page that is now resident
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Records a reference to a page that is already resident.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Stops tracking a page, because it was evicted or discarded.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Chooses the page that should be evicted next. The returned page is not
+     * removed from the policy; the caller reports that with pageRemoved once
+     * the page has actually left the buffer pool.
+     *
+     * @param candidate decides whether a tracked page may be evicted
+     * @return the id of the page to evict, or null if no tracked page is evictable
+     */
+    public PageId chooseVictim(Candidate candidate);
+
+    /**
+     * Lists the tracked pages, the ones the policy would keep longest first.
+     * Used to remember the hot pages of the buffer pool across restarts.
+     *
+     * @return the ids of all tracked pages, most valuable first
+     */
+    public List<PageId> getResidentPages();
+
+    /**
+     * Creates a new, empty policy of the same kind and configuration. Used
+     * to give each shard of the BufferPool its own replacement state.
+     *
+     * @return a policy that tracks no pages
+     */
+    public ReplacementPolicy newInstance();
+}
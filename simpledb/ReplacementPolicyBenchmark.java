@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Compares the hit ratios of the replacement policies on the workloads
+ * they were written for, by replaying page references against a pool of
+ * poolPages frames in which every page is clean. No files are read; only
+ * the policies' choices are measured. Alongside CLOCK and LRU-2 it runs
+ * plain LRU and the policy the BufferPool used before, which evicted the
+ * first clean page in hash order.
+ * <p>
+ * The workloads are:
+ * <ul>
+ * <li>lookup+scan: point lookups into a hot dimension table of half the
+ * pool, interleaved with full scans of a fact table five times the size
+ * of the pool. The lookup hit ratio shows whether the scans flush the
+ * hot pages.
+ * <li>loop: repeated sequential scans of a table a quarter larger than
+ * the pool, which LRU answers with a miss on every reference.
+ * </ul>
+ * Usage: java simpledb.ReplacementPolicyBenchmark [poolPages] [rounds]
+ */
+public class ReplacementPolicyBenchmark {
+
+    /** The BufferPool's eviction before replacement policies: the first evictable page in hash order. */
+    private static class HashOrderPolicy implements ReplacementPolicy {
+        private final Set<PageId> pages = new HashSet<PageId>();
+
+        public void pageAdded(PageId pid) {
+            pages.add(pid);
+        }
+
+        public void pageAccessed(PageId pid) {
+        }
+
+        public void pageRemoved(PageId pid) {
+            pages.remove(pid);
+        }
+
+        public PageId chooseVictim(Candidate candidate) {
+            for (PageId pid : pages) {
+                if (candidate.isEvictable(pid)) {
+                    return pid;
+                }
+            }
+            return null;
+        }
+
+        public List<PageId> getResidentPages() {
+            return new ArrayList<PageId>(pages);
+        }
+
+        public ReplacementPolicy newInstance() {
+            return new HashOrderPolicy();
+        }
+    }
+
+    /** A pool of clean pages that counts hits and misses. */
+    private static class SimulatedPool {
+        private static final ReplacementPolicy.Candidate ANY_PAGE = new ReplacementPolicy.Candidate() {
+            public boolean isEvictable(PageId pid) {
+                return true;
+            }
+        };
+
+        private final ReplacementPolicy policy;
+        private final int capacity;
+        private final Set<PageId> resident = new HashSet<PageId>();
+        long hits;
+        long misses;
+
+        SimulatedPool(ReplacementPolicy policy, int capacity) {
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        /** @return true if the page was resident */
+        boolean access(PageId pid) {
+            if (resident.contains(pid)) {
+                policy.pageAccessed(pid);
+                hits++;
+                return true;
+            }
+            misses++;
+            if (resident.size() >= capacity) {
+                PageId victim = policy.chooseVictim(ANY_PAGE);
+                policy.pageRemoved(victim);
+                resident.remove(victim);
+            }
+            resident.add(pid);
+            policy.pageAdded(pid);
+            return false;
+        }
+
+        double hitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+    }
+
+    private static final int DIMENSION_TABLE = 1;
+    private static final int FACT_TABLE = 2;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Map<String, ReplacementPolicy> policies = new LinkedHashMap<String, ReplacementPolicy>();
+        policies.put("hash order (old)", new HashOrderPolicy());
+        policies.put("LRU", new LruKReplacementPolicy(1, 0));
+        policies.put("CLOCK", new ClockReplacementPolicy());
+        policies.put("LRU-2", new LruKReplacementPolicy());
+
+        System.out.println("workload\tpolicy\thit ratio\tlookup hit ratio");
+        for (Map.Entry<String, ReplacementPolicy> entry : policies.entrySet()) {
+            SimulatedPool pool = new SimulatedPool(entry.getValue().newInstance(), poolPages);
+            int hotPages = poolPages / 2;
+            int factPages = poolPages * 5;
+            Random random = new Random(0);
+            long lookups = 0;
+            long lookupHits = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < hotPages * 4; i++) {
+                    lookups++;
+                    if (pool.access(new HeapPageId(DIMENSION_TABLE, random.nextInt(hotPages)))) {
+                        lookupHits++;
+                    }
+                }
+                for (int page = 0; page < factPages; page++) {
+                    pool.access(new HeapPageId(FACT_TABLE, page));
+                }
+            }
+            System.out.printf("lookup+scan\t%s\t%.3f\t%.3f%n", entry.getKey(), pool.hitRatio(),
+                    (double) lookupHits / lookups);
+        }
+        for (Map.Entry<String, ReplacementPolicy> entry : policies.entrySet()) {
+            SimulatedPool pool = new SimulatedPool(entry.getValue().newInstance(), poolPages);
+            int loopPages = poolPages + poolPages / 4;
+            for (int round = 0; round < rounds; round++) {
+                for (int page = 0; page < loopPages; page++) {
+                    pool.access(new HeapPageId(FACT_TABLE, page));
+                }
+            }
+            System.out.printf("loop\t%s\t%.3f\t-%n", entry.getKey(), pool.hitRatio());
+        }
+    }
+}
@@ -15,6 +15,10 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator databaseFileIterator;
+    // Predicates of open Filters above this scan, once per Filter
+    private final List<Predicate> pushedPredicates = new ArrayList<Predicate>();
+    // The pushed predicates as of open(), which the iterator applies
+    private List<Predicate> appliedPredicates = Collections.emptyList();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -81,13 +85,70 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
         // Get the iterator for the the given table
-        databaseFileIterator = heapFile.iterator(tid);
+        appliedPredicates = new ArrayList<Predicate>(pushedPredicates);
+        databaseFileIterator = this.createIterator(Database.getCatalog().getDatabaseFile(tableid));
         // open iterator
         databaseFileIterator.open();
     }
 
+    /** Returns the iterator open() reads the table with. */
+    protected DbFileIterator createIterator(DbFile file) {
+        if (file instanceof HeapFile) {
+            HeapFile heapFile = (HeapFile) file;
+            // Scan tables that would crowd the buffer pool through a ring of frames
+            BufferRing ring = Database.getBufferPool().newScanRing(heapFile.numPages());
+            return heapFile.iterator(tid, ring, appliedPredicates);
+        }
+        return file.iterator(tid);
+    }
+
+    /**
+     * Asks the scan to skip tuples that fail the predicate, which refers to
+     * the fields of this scan. Scans of HeapFiles evaluate it on the page,
+     * before creating tuples; other scans ignore it, so the caller must
+     * still filter the tuples unless appliesPredicate says otherwise. Takes
+     * effect when the scan is next opened, and lasts until the caller
+     * withdraws it.
+     */
+    public void pushDownPredicate(Predicate p) {
+        pushedPredicates.add(p);
+    }
+
+    /**
+     * Withdraws a predicate pushed down with pushDownPredicate. A predicate
+     * pushed more than once stays until it has been withdrawn as often.
+     * Takes effect when the scan is next opened.
+     */
+    public void withdrawPredicate(Predicate p) {
+        pushedPredicates.remove(p);
+    }
+
+    /** @return true if the open scan only returns tuples that satisfy p */
+    public boolean appliesPredicate(Predicate p) {
+        return databaseFileIterator instanceof HeapFileIterator && appliedPredicates.contains(p);
+    }
+
+    /** @return true if the open scan can return int values with nextIntRun */
+    public boolean readsIntRuns() {
+        return databaseFileIterator instanceof HeapFileIterator;
+    }
+
+    /**
+     * Returns the values of an int field of the tuples on the next page of
+     * the open scan; see HeapFileIterator#nextIntRun. Must not be mixed
+     * with next().
+     *
+     * @return the values, or null at the end of the table
+     * @throws UnsupportedOperationException unless readsIntRuns()
+     */
+    public int[] nextIntRun(int field) throws DbException, TransactionAbortedException {
+        if (!this.readsIntRuns()) {
+            throw new UnsupportedOperationException("scan does not read int runs");
+        }
+        return ((HeapFileIterator) databaseFileIterator).nextIntRun(field);
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -100,18 +161,20 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
         // Get original tuple description
-        TupleDesc originalTupleDesc = heapFile.getTupleDesc();
+        TupleDesc originalTupleDesc = Database.getCatalog().getTupleDesc(tableid);
         int numberOfFields = originalTupleDesc.numFields();
         // Store prefixed fields names
         String[] prefixedFieldsNames = new String[numberOfFields];
         Type[] fieldTypes = new Type[numberOfFields];
+        // Operators above use the dictionaries to compare codes
+        StringDictionary[] dictionaries = new StringDictionary[numberOfFields];
         for (int i = 0; i < numberOfFields; i++) {
             prefixedFieldsNames[i] = tableAlias + "." + originalTupleDesc.getFieldName(i);
             fieldTypes[i] = originalTupleDesc.getFieldType(i);
+            dictionaries[i] = originalTupleDesc.getDictionary(i);
         }
-        return new TupleDesc(fieldTypes, prefixedFieldsNames); 
+        return new TupleDesc(fieldTypes, prefixedFieldsNames, dictionaries); 
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -131,6 +194,9 @@ public class SeqScan implements OpIterator {
 
     public void close() {
         // some code goes here
+        if (databaseFileIterator != null) {
+            databaseFileIterator.close();
+        }
         databaseFileIterator = null;
     }
 
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages, which store
+ * strings with their actual length rather than padded to STRING_LEN. Tables
+ * with mostly short strings fit many more tuples on a page, so scans read
+ * fewer pages. Everything but the page format is inherited from HeapFile.
+ * <p>
+ * A table is stored this way if its line in the catalog file ends with
+ * "slotted", e.g. <tt>users (id int, name string) slotted</tt>.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        if (BufferPool.getPageSize() > SlottedPage.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages can be at most " + SlottedPage.MAX_PAGE_SIZE + " bytes");
+        }
+    }
+
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    // Slotted pages decode from an array, so the image is copied
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer image) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer view = image.duplicate();
+        view.clear();
+        view.get(data);
+        return this.createPage(pid, data);
+    }
+}
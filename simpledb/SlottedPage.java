@@ -0,0 +1,325 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores tuples of varying size on a page of a SlottedHeapFile.
+ * Strings only take as many bytes as they have characters, so a page holds
+ * as many tuples as their actual data allows, instead of the fixed number
+ * of STRING_LEN sized slots a HeapPage has.
+ * <p>
+ * The page starts with a header of two ints: the number of entries in the
+ * slot directory, and the number of bytes of tuple data. The slot
+ * directory follows, one entry per slot: the unsigned short offset of the
+ * tuple within the page and its unsigned short length, with a length of 0
+ * for a free slot. Tuple data is packed at the end of the page and grows
+ * towards the directory. In a tuple, an int field takes 4 bytes and a
+ * string field a short length followed by its characters.
+ * <p>
+ * Slot numbers never change while a tuple is on the page, so RecordIds
+ * stay valid. Space freed by deletions is reclaimed whenever the page is
+ * written, because getPageData packs the remaining tuples back to back.
+ * An all-zero page is an empty page. Pages must not be larger than 64KB.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Bytes taken by the page header. */
+    public static final int HEADER_SIZE = 8;
+
+    /** Bytes taken by each entry of the slot directory. */
+    public static final int SLOT_SIZE = 4;
+
+    /** Largest page size the 16 bit offsets can address. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // Tuples by slot number; null for free slots
+    final ArrayList<Tuple> tuples;
+    // Bytes the tuples take when encoded
+    private int dataBytes;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean isDirty;
+    private TransactionId tid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length > MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages can be at most " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int numSlots = dis.readInt();
+        dis.readInt();
+        int[] offsets = new int[numSlots];
+        int[] lengths = new int[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            offsets[i] = dis.readUnsignedShort();
+            lengths[i] = dis.readUnsignedShort();
+        }
+        this.tuples = new ArrayList<Tuple>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0) {
+                tuples.add(null);
+                continue;
+            }
+            Tuple t = decodeTuple(new DataInputStream(new ByteArrayInputStream(data, offsets[i], lengths[i])));
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+            dataBytes += lengths[i];
+        }
+        setBeforeImage();
+    }
+
+    private Tuple decodeTuple(DataInputStream dis) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                byte[] chars = new byte[dis.readUnsignedShort()];
+                dis.readFully(chars);
+                t.setField(j, new StringField(new String(chars), Type.STRING_LEN));
+            } else {
+                t.setField(j, new IntField(dis.readInt()));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of bytes the tuple takes on a page, excluding its
+     *         slot directory entry
+     */
+    public static int encodedSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                size += 2 + Math.min(StringField.valueOf(t.getField(j)).length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    /** @return the number of bytes the smallest possible tuple of td takes */
+    static int minEncodedSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.STRING_TYPE ? 2 : td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    private static void encodeTuple(Tuple t, DataOutputStream dos) throws IOException {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = StringField.valueOf(t.getField(j));
+                if (s.length() > Type.STRING_LEN) {
+                    s = s.substring(0, Type.STRING_LEN);
+                }
+                dos.writeShort(s.length());
+                dos.writeBytes(s);
+            } else {
+                t.getField(j).serialize(dos);
+            }
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the tuples packed at the end of the page in slot order.
+     */
+    public byte[] getPageData() {
+        int pageSize = BufferPool.getPageSize();
+        ByteArrayOutputStream tupleBytes = new ByteArrayOutputStream(dataBytes);
+        DataOutputStream tupleStream = new DataOutputStream(tupleBytes);
+        int[] lengths = new int[tuples.size()];
+        try {
+            for (int i = 0; i < tuples.size(); i++) {
+                if (tuples.get(i) != null) {
+                    int before = tupleStream.size();
+                    encodeTuple(tuples.get(i), tupleStream);
+                    lengths[i] = tupleStream.size() - before;
+                }
+            }
+            tupleStream.flush();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        byte[] data = new byte[pageSize];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.putInt(tuples.size());
+        page.putInt(tupleBytes.size());
+        int offset = pageSize - tupleBytes.size();
+        for (int i = 0; i < tuples.size(); i++) {
+            page.putShort((short) (lengths[i] == 0 ? 0 : offset));
+            page.putShort((short) lengths[i]);
+            offset += lengths[i];
+        }
+        System.arraycopy(tupleBytes.toByteArray(), 0, data, pageSize - tupleBytes.size(), tupleBytes.size());
+        return data;
+    }
+
+    /** @return the number of unused bytes between the slot directory and the tuple data */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE * tuples.size() - dataBytes;
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return tuples.size() - Collections.frequency(tuples, null);
+    }
+
+    /** Returns the number of free bytes needed to store the tuple, including a new slot if needed. */
+    private int spaceNeeded(Tuple t) {
+        return encodedSize(t) + (tuples.contains(null) ? 0 : SLOT_SIZE);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return spaceNeeded(t) <= this.getFreeSpace();
+    }
+
+    public boolean hasFreeSpace() {
+        // A freed slot can be reused without growing the directory, but
+        // allow for a new one to keep this cheap
+        return minEncodedSize(td) + SLOT_SIZE <= this.getFreeSpace();
+    }
+
+    /**
+     * Delete the specified tuple from the page; the slot becomes free and
+     * the space of the tuple is reclaimed.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("The tuple is not on this page.");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= tuples.size() || tuples.get(slot) == null) {
+            throw new DbException("The tuple slot is already empty.");
+        }
+        dataBytes -= encodedSize(tuples.get(slot));
+        tuples.set(slot, null);
+        // Trailing free slots give their directory entries back
+        while (!tuples.isEmpty() && tuples.get(tuples.size() - 1) == null) {
+            tuples.remove(tuples.size() - 1);
+        }
+        this.updateFreeSpaceMap();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first free slot or a new
+     * one; the tuple is updated to reflect that it is now stored on this
+     * page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc of the tuple does not match the page.");
+        }
+        if (!this.hasRoomFor(t)) {
+            throw new DbException("The page does not have room for the tuple.");
+        }
+        int slot = tuples.indexOf(null);
+        if (slot < 0) {
+            slot = tuples.size();
+            tuples.add(null);
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
+        dataBytes += encodedSize(t);
+        this.updateFreeSpaceMap();
+        this.updateZoneMap(t);
+    }
+
+    /** Tells the free space map of the file whether this page has free space. */
+    void updateFreeSpaceMap() {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).updateFreeSpace(pid.getPageNumber(), this.hasFreeSpace());
+        }
+    }
+
+    /** Widens the zone of this page in the zone map of the file to contain a tuple just inserted. */
+    void updateZoneMap(Tuple t) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).tupleInserted(pid.getPageNumber(), t);
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> used = new ArrayList<Tuple>(tuples.size());
+        for (Tuple t : tuples) {
+            if (t != null) {
+                used.add(t);
+            }
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+}
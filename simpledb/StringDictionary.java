@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct values of a dictionary encoded string
+ * column to int codes, so that pages store a 4 byte code instead of a
+ * STRING_TYPE value. Codes are handed out in order of first use and never
+ * change or get reused, so they stay valid for as long as pages refer to
+ * them.
+ * <p>
+ * The dictionary is kept in a file holding the values in code order, each
+ * as a short byte length followed by its characters in ISO-8859-1, one
+ * byte per character as StringField writes them. Characters ISO-8859-1
+ * lacks are replaced by '?' before a value is looked up or added, so a
+ * value reads back the same after the file is reopened. A new value is
+ * appended and forced before its code is returned, so no page can reach
+ * the disk with a code the file does not have. Values added by
+ * transactions that later abort stay in the dictionary.
+ * <p>
+ * Decoding takes no lock; it is meant to be cheap enough to do for every
+ * value a query returns.
+ * <p>
+ * There is one instance per file, see open. A serialized dictionary only
+ * carries its file name and resolves to that instance when read back, so
+ * TupleDescs keep their dictionaries and field lengths.
+ *
+ * @see DictionaryField
+ */
+public class StringDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    // Open dictionaries by absolute file, so each file has a single writer
+    private static final Map<File, StringDictionary> opened = new HashMap<File, StringDictionary>();
+
+    private final File file;
+    private final transient FileChannel channel;
+    // Values by code; only the first size entries are valid. A new value
+    // is stored before size is raised, and the array is replaced by a
+    // larger copy when full, so readers see every value up to size.
+    private volatile transient String[] values;
+    private volatile transient int size;
+    // Codes by value; guarded by this
+    private final transient HashMap<String, Integer> codes;
+
+    /**
+     * Returns the dictionary stored in the given file, opening it and
+     * creating the file if it does not exist yet.
+     */
+    public static StringDictionary open(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        synchronized (opened) {
+            StringDictionary dictionary = opened.get(key);
+            if (dictionary == null) {
+                dictionary = new StringDictionary(key);
+                opened.put(key, dictionary);
+            }
+            return dictionary;
+        }
+    }
+
+    private StringDictionary(File file) throws IOException {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.codes = new HashMap<String, Integer>();
+        ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+        while (contents.hasRemaining()) {
+            if (channel.read(contents, contents.position()) < 0) {
+                break;
+            }
+        }
+        contents.flip();
+        List<String> loaded = new ArrayList<String>();
+        int end = 0;
+        while (contents.remaining() >= 2) {
+            int length = contents.getShort() & 0xffff;
+            if (contents.remaining() < length) {
+                break;
+            }
+            byte[] chars = new byte[length];
+            contents.get(chars);
+            String value = new String(chars, CHARSET);
+            codes.put(value, loaded.size());
+            loaded.add(value);
+            end = contents.position();
+        }
+        if (end < channel.size()) {
+            // A value whose append did not complete was never handed out
+            channel.truncate(end);
+        }
+        this.values = loaded.toArray(new String[Math.max(loaded.size(), 16)]);
+        this.size = loaded.size();
+    }
+
+    /** @return the file the dictionary is stored in */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of values in the dictionary */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value with the given code
+     * @throws NoSuchElementException if there is no such code
+     */
+    public String decode(int code) {
+        if (code < 0 || code >= size) {
+            throw new NoSuchElementException("no value with code " + code + " in " + file);
+        }
+        return values[code];
+    }
+
+    /** @return the code of the value, or -1 if it is not in the dictionary */
+    public synchronized int lookup(String value) {
+        Integer code = codes.get(normalize(value));
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the code of the value, adding the value to the dictionary if
+     * it is not in it yet. Values are truncated to STRING_LEN characters,
+     * as StringField does.
+     */
+    public synchronized int encode(String value) throws IOException {
+        value = normalize(value);
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        byte[] bytes = value.getBytes(CHARSET);
+        ByteBuffer entry = ByteBuffer.allocate(2 + bytes.length);
+        entry.putShort((short) bytes.length);
+        entry.put(bytes);
+        entry.flip();
+        long position = channel.size();
+        while (entry.hasRemaining()) {
+            channel.write(entry, position + entry.position());
+        }
+        channel.force(false);
+        int newCode = size;
+        if (newCode == values.length) {
+            values = Arrays.copyOf(values, newCode * 2);
+        }
+        values[newCode] = value;
+        size = newCode + 1;
+        codes.put(value, newCode);
+        return newCode;
+    }
+
+    /**
+     * @return field as a DictionaryField of this dictionary, adding its
+     *         value to the dictionary if needed
+     */
+    public DictionaryField encode(Field field) throws IOException {
+        if (field instanceof DictionaryField && ((DictionaryField) field).getDictionary() == this) {
+            return (DictionaryField) field;
+        }
+        return new DictionaryField(this.encode(StringField.valueOf(field)), this);
+    }
+
+    /** @return the value as it reads back from the file */
+    private static String normalize(String value) {
+        String truncated = value.length() > Type.STRING_LEN ? value.substring(0, Type.STRING_LEN) : value;
+        return new String(truncated.getBytes(CHARSET), CHARSET);
+    }
+
+    // Only the file name is sent; the values stay in the file
+    private Object writeReplace() {
+        return new SerializedDictionary(file);
+    }
+
+    /** The serialized form of a StringDictionary. */
+    private static class SerializedDictionary implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+
+        SerializedDictionary(File file) {
+            this.file = file;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return StringDictionary.open(file);
+            } catch (IOException e) {
+                throw new InvalidObjectException("could not open the dictionary " + file + ": " + e);
+            }
+        }
+    }
+}
@@ -42,7 +42,20 @@ public class StringField implements Field {
 	}
 
 	public boolean equals(Object field) {
-		return ((StringField) field).value.equals(value);
+		if (!(field instanceof StringField || field instanceof DictionaryField))
+			return false;
+		return valueOf((Field) field).equals(value);
+	}
+
+	/**
+	 * @return the string value of a StringField or DictionaryField
+	 * @throws IllegalCastException
+	 *             if field is neither
+	 */
+	public static String valueOf(Field field) {
+		if (field instanceof DictionaryField)
+			return ((DictionaryField) field).getValue();
+		return ((StringField) field).value;
 	}
 
 	/**
@@ -71,13 +84,20 @@ public class StringField implements Field {
 	 * are as specified by Field.compare
 	 * 
 	 * @throws IllegalCastException
-	 *             if val is not a StringField
+	 *             if val is not a StringField or DictionaryField
 	 * @see Field#compare
 	 */
 	public boolean compare(Predicate.Op op, Field val) {
 
-		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		return compare(value, op, valueOf(val));
+	}
+
+	/**
+	 * Compares two strings the way compare compares StringFields, for
+	 * fields that hold their value in another form.
+	 */
+	static boolean compare(String value, Predicate.Op op, String operand) {
+		int cmpVal = value.compareTo(operand);
 
 		switch (op) {
 		case EQUALS:
@@ -99,7 +119,7 @@ public class StringField implements Field {
 			return cmpVal <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return value.indexOf(operand) >= 0;
 		}
 
 		return false;
@@ -105,7 +105,15 @@ public class TableStats {
         this.fieldNameToMin = new HashMap<String, Integer>();
         this.fieldNameToMax = new HashMap<String, Integer>();
         TransactionId tid = new TransactionId();
-        DbFileIterator iterator = file.iterator(tid);
+        DbFileIterator iterator;
+        if (file instanceof HeapFile) {
+            // Statistics are gathered with full scans, which should not push
+            // the working set of other queries out of the buffer pool
+            HeapFile heapFile = (HeapFile) file;
+            iterator = heapFile.iterator(tid, Database.getBufferPool().newScanRing(heapFile.numPages()));
+        } else {
+            iterator = file.iterator(tid);
+        }
         // Store min and max values for each integer field
         this.setMinAndMaxValues(iterator);
         for (int i = 0; i < tupleDescriptor.numFields(); i++) {
@@ -136,6 +144,10 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
+        if (file instanceof ColumnFile) {
+            // A full scan reads every column
+            return (double) ((ColumnFile) file).numPages() * ioCostPerPage;
+        }
         HeapFile heapfile = (HeapFile) file;
         return (double) heapfile.numPages() * ioCostPerPage;
     }
@@ -193,9 +205,8 @@ public class TableStats {
             IntHistogram intHistogram = fieldNameToIntHistogram.get(fieldName);
             return intHistogram.estimateSelectivity(op, integerValue);
         } else {
-            // Cast to StringField
-            StringField castedConstant = (StringField) constant;
-            String stringValue = castedConstant.getValue();
+            // The constant may be a StringField or DictionaryField
+            String stringValue = StringField.valueOf(constant);
             StringHistogram stringHistogram = fieldNameToStringHistogram.get(fieldName);
             return stringHistogram.estimateSelectivity(op, stringValue);
         }
@@ -252,7 +263,7 @@ public class TableStats {
                         fieldNameToIntHistogram.get(fieldName).addValue(integerValue);
                     } else {
                         Field field = currentTuple.getField(i);
-                        String stringValue = ((StringField) field).getValue();
+                        String stringValue = StringField.valueOf(field);
                         fieldNameToStringHistogram.get(fieldName).addValue(stringValue);
                     }
                 }
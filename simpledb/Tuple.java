@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -9,6 +11,9 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Tuples read from a HeapPage are decoded lazily: each field is parsed from
+ * the page's bytes the first time it is requested.
  */
 public class Tuple implements Serializable {
 
@@ -17,6 +22,9 @@ public class Tuple implements Serializable {
     private TupleDesc td;
     private Field[] fields;
     private RecordId rId;
+    // Page and slot the undecoded fields are read from, null once fully decoded
+    private transient HeapPage source;
+    private transient int slot;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,6 +39,40 @@ public class Tuple implements Serializable {
         fields = new Field[td.numFields()];
     }
 
+    /**
+     * Creates a tuple whose fields are decoded on demand from a slot of a page.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param source
+     *            the page holding the serialized tuple.
+     * @param slot
+     *            the slot of the tuple on the page.
+     */
+    Tuple(TupleDesc td, HeapPage source, int slot) {
+        this(td);
+        this.source = source;
+        this.slot = slot;
+    }
+
+    /** Decodes every field that has not been decoded yet. */
+    private void decodeAll() {
+        if (source == null) {
+            return;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) {
+                fields[i] = source.decodeField(slot, i);
+            }
+        }
+        source = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -80,6 +122,9 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
+        if (fields[i] == null && source != null) {
+            fields[i] = source.decodeField(slot, i);
+        }
         return fields[i];
     }
 
@@ -93,6 +138,7 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+        decodeAll();
         StringBuffer result = new StringBuffer();
         result.append(fields[0].toString());
         for (int i = 1; i < fields.length; i++) {
@@ -108,6 +154,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        decodeAll();
         List<Field> list = Arrays.asList(fields);
         return list.iterator();
     }
@@ -118,6 +165,8 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        // The page layout follows the original TupleDesc
+        decodeAll();
         this.td = td;
     }
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -25,9 +26,19 @@ public class TupleDesc implements Serializable {
          * */
         public final String fieldName;
 
+        /**
+         * The dictionary of a dictionary encoded string field, or null
+         * */
+        public final StringDictionary dictionary;
+
         public TDItem(Type t, String n) {
+            this(t, n, null);
+        }
+
+        public TDItem(Type t, String n, StringDictionary dictionary) {
             this.fieldName = n;
             this.fieldType = t;
+            this.dictionary = dictionary;
         }
 
         public String toString() {
@@ -37,6 +48,9 @@ public class TupleDesc implements Serializable {
 
     private final TDItem[] tdItems;
 
+    // Byte offset of each field within a serialized tuple, computed on first use
+    private transient int[] fieldOffsets;
+
     /**
      * @return
      *        An iterator which iterates over all the field TDItems
@@ -69,6 +83,24 @@ public class TupleDesc implements Serializable {
         }
     }
 
+    /**
+     * Create a new TupleDesc like TupleDesc(typeAr, fieldAr) in which some
+     * string fields are dictionary encoded.
+     *
+     * @param dictionaries
+     *            array specifying the dictionary of each field, or null for
+     *            fields that are not dictionary encoded
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, StringDictionary[] dictionaries) {
+        tdItems = new TDItem[typeAr.length];
+        for (int i = 0; i < typeAr.length; i++) {
+            if (dictionaries[i] != null && typeAr[i] != Type.STRING_TYPE) {
+                throw new IllegalArgumentException("only string fields can be dictionary encoded");
+            }
+            tdItems[i] = new TDItem(typeAr[i], fieldAr[i], dictionaries[i]);
+        }
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -128,6 +160,59 @@ public class TupleDesc implements Serializable {
         return tdItems[i].fieldType;
     }
 
+    /**
+     * Gets the dictionary of the ith field of this TupleDesc.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the dictionary of the ith field, or null if the field is not
+     *         dictionary encoded
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public StringDictionary getDictionary(int i) throws NoSuchElementException {
+        if (i < 0 || i >= tdItems.length) {
+            throw new NoSuchElementException();
+        }
+        return tdItems[i].dictionary;
+    }
+
+    /**
+     * Gets the number of bytes the ith field takes in a serialized tuple:
+     * the length of its type, or 4 for the code of a dictionary encoded
+     * field.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldLength(int i) throws NoSuchElementException {
+        if (i < 0 || i >= tdItems.length) {
+            throw new NoSuchElementException();
+        }
+        return tdItems[i].dictionary != null ? Type.INT_TYPE.getLen() : tdItems[i].fieldType.getLen();
+    }
+
+    /**
+     * Parses the ith field of a serialized tuple from a buffer, without
+     * moving the buffer's position.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @param buffer
+     *            The buffer holding the serialized field
+     * @param offset
+     *            The absolute index in the buffer at which the field starts
+     */
+    public Field parseField(int i, ByteBuffer buffer, int offset) {
+        StringDictionary dictionary = this.getDictionary(i);
+        if (dictionary != null) {
+            return new DictionaryField(buffer.getInt(offset), dictionary);
+        }
+        return tdItems[i].fieldType.parse(buffer, offset);
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -155,11 +240,38 @@ public class TupleDesc implements Serializable {
         // some code goes here
         int total = 0;
         for (int i = 0; i < tdItems.length; i++) {
-            total += tdItems[i].fieldType.getLen();
+            total += this.getFieldLength(i);
         }
         return total;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple, i.e.
+     * the total size of the fields before it.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset of the ith field in bytes
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= tdItems.length) {
+            throw new NoSuchElementException();
+        }
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[tdItems.length];
+            int offset = 0;
+            for (int j = 0; j < tdItems.length; j++) {
+                offsets[j] = offset;
+                offset += this.getFieldLength(j);
+            }
+            fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -174,15 +286,18 @@ public class TupleDesc implements Serializable {
         // some code goes here
         Type[] combinedTypes = new Type[td1.numFields() + td2.numFields()];
         String[] combinedNames = new String[td1.numFields() + td2.numFields()];
+        StringDictionary[] combinedDictionaries = new StringDictionary[td1.numFields() + td2.numFields()];
         for (int i = 0; i < td1.numFields(); i++) {
             combinedTypes[i] = td1.getFieldType(i);
             combinedNames[i] = td1.getFieldName(i);
+            combinedDictionaries[i] = td1.getDictionary(i);
         }
         for (int i = 0; i < td2.numFields(); i++) {
             combinedTypes[i + td1.numFields()] = td2.getFieldType(i);
             combinedNames[i + td1.numFields()] = td2.getFieldName(i);
+            combinedDictionaries[i + td1.numFields()] = td2.getDictionary(i);
         }
-        TupleDesc result = new TupleDesc(combinedTypes, combinedNames); 
+        TupleDesc result = new TupleDesc(combinedTypes, combinedNames, combinedDictionaries); 
         return result;
     }
 
@@ -190,7 +305,8 @@ public class TupleDesc implements Serializable {
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
      * and if the i-th type in this TupleDesc is equal to the i-th type in o
-     * for every i.
+     * for every i. Dictionaries are not compared, so tuples can be inserted
+     * into tables whose string fields are encoded differently.
      * 
      * @param o
      *            the Object to be compared for equality with this TupleDesc.
@@ -0,0 +1,44 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile that stores tuples, whatever its layout on disk.
+ * HeapFile and its iterator only use pages through this interface, so a
+ * subclass of HeapFile can store its pages in a different format.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page; the corresponding slot
+     * should be marked as free.
+     *
+     * @throws DbException if this tuple is not on this page, or the slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /** @return true if insertTuple would find room for the tuple */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if the page has room for at least the smallest possible
+     *         tuple; this is what the free space map records
+     */
+    public boolean hasFreeSpace();
+
+    /** @return an iterator over all tuples on this page */
+    public Iterator<Tuple> iterator();
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * ValidityPage is a page of the bitmap that records which rows of a
+ * ColumnFile are in use. Bit i of the page, counting from the low bit of
+ * the first byte, stands for row getPageNumber() * getNumSlots() + i. A
+ * row is inserted by setting its bit after writing its values into the
+ * ColumnPages, and deleted by clearing it; the values are left in place.
+ *
+ * @see ColumnFile
+ * @see ColumnPage
+ */
+public class ValidityPage implements Page {
+
+    final ColumnPageId pid;
+    final byte[] bits;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean isDirty;
+    private TransactionId tid;
+
+    /**
+     * Create a ValidityPage from a set of bytes of data read from disk. The
+     * page takes ownership of the array.
+     */
+    public ValidityPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.bits = data;
+        setBeforeImage();
+    }
+
+    /** @return the number of rows a page of the bitmap covers */
+    public static int getNumSlots() {
+        return BufferPool.getPageSize() * 8;
+    }
+
+    /** @return true if the row in the given slot is in use */
+    public boolean isSlotUsed(int slot) {
+        return (bits[slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    /** Marks the row in the given slot as used or free. */
+    public void markSlotUsed(int slot, boolean value) {
+        if (value) {
+            bits[slot / 8] |= (byte) (1 << (slot % 8));
+        } else {
+            bits[slot / 8] &= (byte) ~(1 << (slot % 8));
+        }
+    }
+
+    /** @return the first free slot, or -1 if every row of the page is in use */
+    public int firstFreeSlot() {
+        for (int i = 0; i < bits.length; i++) {
+            if (bits[i] != (byte) 0xff) {
+                return i * 8 + Integer.numberOfTrailingZeros(~bits[i] & 0xff);
+            }
+        }
+        return -1;
+    }
+
+    /** @return the next used slot at or after from, or -1 if there is none */
+    public int nextUsedSlot(int from) {
+        for (int slot = from; slot < getNumSlots(); slot++) {
+            if (bits[slot / 8] == 0) {
+                // Skip the rest of an empty byte
+                slot |= 7;
+            } else if (isSlotUsed(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ValidityPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData.clone();
+            }
+            return new ValidityPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     */
+    public byte[] getPageData() {
+        return bits.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+}
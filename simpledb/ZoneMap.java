@@ -0,0 +1,371 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every int field on each
+ * page of a HeapFile, so a scan with predicates on those fields can skip
+ * pages whose values cannot satisfy them without reading the pages.
+ * <p>
+ * A zone only ever has to contain the values on its page; it may be wider.
+ * Inserting a tuple widens the zone of its page at once. Deleting a tuple
+ * leaves the zone alone, since the delete may still be rolled back; zones
+ * are made exact again whenever a committed image of their page is
+ * written, provided no transaction was changing the page when the image
+ * was taken and no tuple was inserted since. Writing any other image only
+ * widens the zone, as an abort may bring back tuples the image lacks and
+ * the live page may hold tuples it lacks. A page whose zone is not known,
+ * e.g. a page added since the zones were last written, is never skipped.
+ * <p>
+ * Zones are kept in a file named after the HeapFile with a ".zones"
+ * suffix: one record per page, an int that is 1 if the zone is known
+ * followed by the minimum and maximum of each int field. Before a page is
+ * written, its record is widened to also cover the new contents; after
+ * the write it is replaced by the exact zone. The record of a page thus
+ * covers whatever version of the page made it to disk, and recovery
+ * rewrites records along with the pages it restores.
+ */
+public class ZoneMap {
+
+    // A zone is an array holding the minimum and maximum of each int field,
+    // or an empty array if it is not known. Zones are never modified once
+    // stored and every insert stores a new one, so a writer can tell
+    // whether a page changed since it looked at its zone.
+
+    private final File file;
+    // The int fields of the file
+    private final int[] fields;
+    private final int recordSize;
+    private FileChannel channel;
+    // Zones covering the pages in the BufferPool and on disk; guarded by this
+    private int[][] zones;
+    // Zones as recorded in the file; guarded by this
+    private int[][] stored;
+
+    /**
+     * Loads the zones of a HeapFile. Pages without a valid record start
+     * with unknown zones.
+     *
+     * @param file the zone file
+     * @param td the TupleDesc of the HeapFile; it must have an int field
+     */
+    public ZoneMap(File file, TupleDesc td) {
+        this.file = file;
+        List<Integer> intFields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intFields.add(i);
+            }
+        }
+        this.fields = new int[intFields.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = intFields.get(i);
+        }
+        this.recordSize = 4 + 8 * fields.length;
+        this.zones = new int[16][];
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            int count = (int) (channel.size() / recordSize);
+            ByteBuffer records = ByteBuffer.allocate(count * recordSize);
+            while (records.hasRemaining()) {
+                if (channel.read(records, records.position()) < 0) {
+                    break;
+                }
+            }
+            records.flip();
+            zones = new int[Math.max(count, 16)][];
+            for (int page = 0; page < count; page++) {
+                if (records.getInt() != 1) {
+                    records.position(records.position() + recordSize - 4);
+                    continue;
+                }
+                int[] zone = new int[2 * fields.length];
+                for (int j = 0; j < zone.length; j++) {
+                    zone[j] = records.getInt();
+                }
+                zones[page] = zone;
+            }
+        } catch (IOException e) {
+            // Start over with unknown zones; records are rewritten as pages are
+            e.printStackTrace();
+            zones = new int[16][];
+        }
+        this.stored = zones.clone();
+    }
+
+    /** @return the zone of a page that holds no tuples */
+    int[] emptyZone() {
+        int[] zone = new int[2 * fields.length];
+        for (int j = 0; j < fields.length; j++) {
+            zone[2 * j] = Integer.MAX_VALUE;
+            zone[2 * j + 1] = Integer.MIN_VALUE;
+        }
+        return zone;
+    }
+
+    /** @return the exact zone of the tuples on a page */
+    int[] zoneOf(TuplePage page) {
+        int[] zone = this.emptyZone();
+        if (page instanceof HeapPage) {
+            // Read the values without creating tuples
+            HeapPage heapPage = (HeapPage) page;
+            int[] slots = heapPage.matchingSlots(Collections.<Predicate>emptyList());
+            for (int j = 0; j < fields.length; j++) {
+                for (int value : heapPage.intValues(fields[j], slots)) {
+                    zone[2 * j] = Math.min(zone[2 * j], value);
+                    zone[2 * j + 1] = Math.max(zone[2 * j + 1], value);
+                }
+            }
+            return zone;
+        }
+        Iterator<Tuple> tuples = page.iterator();
+        while (tuples.hasNext()) {
+            zone = this.include(zone, tuples.next());
+        }
+        return zone;
+    }
+
+    /**
+     * @return zone if it contains the int fields of t, otherwise a new zone
+     *         that also contains them
+     */
+    int[] include(int[] zone, Tuple t) {
+        int[] result = zone;
+        for (int j = 0; j < fields.length; j++) {
+            int value = ((IntField) t.getField(fields[j])).getValue();
+            if (value < result[2 * j] || value > result[2 * j + 1]) {
+                if (result == zone) {
+                    result = zone.clone();
+                }
+                result[2 * j] = Math.min(result[2 * j], value);
+                result[2 * j + 1] = Math.max(result[2 * j + 1], value);
+            }
+        }
+        return result;
+    }
+
+    /** @return the smallest zone containing both zones; either may be unknown */
+    private static int[] union(int[] a, int[] b) {
+        if (a == null || a.length == 0 || b == null || b.length == 0) {
+            return new int[0];
+        }
+        int[] zone = a.clone();
+        for (int j = 0; j < zone.length; j += 2) {
+            zone[j] = Math.min(zone[j], b[j]);
+            zone[j + 1] = Math.max(zone[j + 1], b[j + 1]);
+        }
+        return zone;
+    }
+
+    private void ensureCapacity(int pageNumber) {
+        if (pageNumber >= zones.length) {
+            int size = Math.max(pageNumber + 1, zones.length * 2);
+            zones = Arrays.copyOf(zones, size);
+            stored = Arrays.copyOf(stored, size);
+        }
+    }
+
+    /** @return the current zone of a page, or null if it has none */
+    synchronized int[] get(int pageNumber) {
+        return pageNumber < zones.length ? zones[pageNumber] : null;
+    }
+
+    /**
+     * Widens the zone of a page to contain a tuple just inserted on it.
+     * Must be called after the tuple is on the page. The zone is replaced
+     * even if it already contains the tuple, so writers see that it changed.
+     */
+    synchronized void tupleInserted(int pageNumber, Tuple t) {
+        this.ensureCapacity(pageNumber);
+        int[] zone = zones[pageNumber];
+        if (zone == null || zone.length == 0) {
+            zones[pageNumber] = new int[0];
+            return;
+        }
+        int[] widened = this.include(zone, t);
+        zones[pageNumber] = widened == zone ? zone.clone() : widened;
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy all the predicates,
+     *         true if some may
+     */
+    public boolean mayMatch(int pageNumber, List<Predicate> predicates) {
+        int[] zone = this.get(pageNumber);
+        if (zone == null || zone.length == 0) {
+            return true;
+        }
+        for (Predicate p : predicates) {
+            int j = Arrays.binarySearch(fields, p.getField());
+            if (j < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int min = zone[2 * j];
+            int max = zone[2 * j + 1];
+            if (min > max) {
+                // No tuples on the page
+                return false;
+            }
+            int value = ((IntField) p.getOperand()).getValue();
+            boolean possible;
+            switch (p.getOp()) {
+            case EQUALS:
+                possible = min <= value && value <= max;
+                break;
+            case NOT_EQUALS:
+                possible = min != value || max != value;
+                break;
+            case GREATER_THAN:
+                possible = max > value;
+                break;
+            case GREATER_THAN_OR_EQ:
+                possible = max >= value;
+                break;
+            case LESS_THAN:
+                possible = min < value;
+                break;
+            case LESS_THAN_OR_EQ:
+                possible = min <= value;
+                break;
+            default:
+                possible = true;
+            }
+            if (!possible) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A write of consecutive pages: created before the pages are written,
+     * finished once they are.
+     */
+    class Write {
+        private final int firstPage;
+        private final int[][] newZones;
+        // The zones of the pages before newZones were computed
+        private final int[][] before;
+        // Whether each image holds committed changes only
+        private final boolean[] committed;
+
+        private Write(int firstPage, int[][] newZones, int[][] before, boolean[] committed) {
+            this.firstPage = firstPage;
+            this.newZones = newZones;
+            this.before = before;
+            this.committed = committed;
+        }
+
+        /**
+         * Records that the pages were written. The zone of a page becomes
+         * exact if its image was committed and the zone did not change
+         * since the write began; otherwise it is widened to cover the image.
+         */
+        void finish() throws IOException {
+            synchronized (ZoneMap.this) {
+                for (int i = 0; i < newZones.length; i++) {
+                    stored[firstPage + i] = newZones[i];
+                    if (committed[i] && zones[firstPage + i] == before[i]) {
+                        zones[firstPage + i] = newZones[i];
+                    } else {
+                        zones[firstPage + i] = union(zones[firstPage + i], newZones[i]);
+                    }
+                }
+            }
+            writeRecords(firstPage, newZones);
+        }
+    }
+
+    /**
+     * Begins a write of the given pages, starting at firstPage: computes
+     * their zones and widens their records to cover both the old and new
+     * contents. A page that is not dirty holds committed changes only;
+     * the BufferPool writes committed pages as clean snapshots, and marks
+     * a snapshot dirty if a transaction may have changed the page since.
+     *
+     * @param zonesAtCapture the zones, as returned by get, of pages whose
+     *        image was taken before this call; the zones of other pages are
+     *        looked up now
+     */
+    Write beginWrite(int firstPage, List<? extends Page> pages, Map<PageId, int[]> zonesAtCapture)
+            throws IOException {
+        int[][] before = new int[pages.size()][];
+        for (int i = 0; i < before.length; i++) {
+            PageId pid = pages.get(i).getId();
+            before[i] = zonesAtCapture.containsKey(pid) ? zonesAtCapture.get(pid) : this.get(firstPage + i);
+        }
+        int[][] newZones = new int[pages.size()][];
+        boolean[] committed = new boolean[pages.size()];
+        for (int i = 0; i < newZones.length; i++) {
+            newZones[i] = this.zoneOf((TuplePage) pages.get(i));
+            committed[i] = pages.get(i).isDirty() == null;
+        }
+        return this.beginWrite(firstPage, newZones, before, committed);
+    }
+
+    /**
+     * Begins a write of new pages whose zones the caller computed, e.g.
+     * with emptyZone and include. Their zones become exact even though the
+     * load may not have committed yet: rolling it back rewrites the pages,
+     * which resets the zones.
+     */
+    Write beginWrite(int firstPage, int[][] newZones) throws IOException {
+        int[][] before = new int[newZones.length][];
+        boolean[] committed = new boolean[newZones.length];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = this.get(firstPage + i);
+            committed[i] = true;
+        }
+        return this.beginWrite(firstPage, newZones, before, committed);
+    }
+
+    private Write beginWrite(int firstPage, int[][] newZones, int[][] before, boolean[] committed)
+            throws IOException {
+        int[][] records = new int[newZones.length][];
+        synchronized (this) {
+            this.ensureCapacity(firstPage + newZones.length - 1);
+            for (int i = 0; i < newZones.length; i++) {
+                // Unknown if the page is on disk without a record
+                records[i] = union(stored[firstPage + i], newZones[i]);
+                stored[firstPage + i] = records[i];
+            }
+        }
+        this.writeRecords(firstPage, records);
+        return new Write(firstPage, newZones, before, committed);
+    }
+
+    private void writeRecords(int firstPage, int[][] records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(records.length * recordSize);
+        for (int[] zone : records) {
+            if (zone.length == 0) {
+                buffer.position(buffer.position() + recordSize);
+                continue;
+            }
+            buffer.putInt(1);
+            for (int value : zone) {
+                buffer.putInt(value);
+            }
+        }
+        buffer.flip();
+        FileChannel zoneFile = this.getChannel();
+        long position = (long) firstPage * recordSize;
+        while (buffer.hasRemaining()) {
+            zoneFile.write(buffer, position + buffer.position());
+        }
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /** Forces the zone records to disk. */
+    public void force() throws IOException {
+        this.getChannel().force(false);
+    }
+}